@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic;
+
+import com.newrelic.opentracing.payload.JsonWriter;
+import com.newrelic.opentracing.util.DistributedTraceUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Id and priority generation. With the gc profiler, {@code gc.alloc.rate.norm} should be 0 B/op for everything but
+ * {@link #renderGuid()}, which creates the guid string the way inject does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IdBenchmark {
+
+    private final JsonWriter json = new JsonWriter(64);
+
+    @Benchmark
+    public long nextId() {
+        return DistributedTraceUtil.nextId();
+    }
+
+    @Benchmark
+    public float nextPriority() {
+        return DistributedTraceUtil.nextTruncatedFloat();
+    }
+
+    @Benchmark
+    public int writeGuid() {
+        json.reset();
+        json.guidValue(DistributedTraceUtil.nextId());
+        return json.size();
+    }
+
+    @Benchmark
+    public String renderGuid() {
+        return DistributedTraceUtil.generateGuid();
+    }
+
+}
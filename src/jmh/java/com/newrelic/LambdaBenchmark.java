@@ -7,9 +7,12 @@ package com.newrelic;
 
 import com.newrelic.opentracing.LambdaTracer;
 import io.opentracing.Scope;
+import io.opentracing.ScopeManager;
 import io.opentracing.Span;
+import io.opentracing.noop.NoopSpan;
 import io.opentracing.tag.Tags;
 import io.opentracing.util.GlobalTracer;
+import io.opentracing.util.ThreadLocalScopeManager;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Mode;
@@ -37,6 +40,8 @@ public class LambdaBenchmark {
     @Param({ "1", "5", "10" })
     public int createSpans;
 
+    private final ThreadLocalScopeManager threadLocalScopeManager = new ThreadLocalScopeManager();
+
     @Benchmark
     @BenchmarkMode(Mode.AverageTime)
     @OutputTimeUnit(TimeUnit.MILLISECONDS)
@@ -49,6 +54,35 @@ public class LambdaBenchmark {
         }
     }
 
+    /**
+     * Activate createSpans nested scopes with the tracer's scope manager, reading the active span at the innermost.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Span activateScopes() {
+        return activateNestedScopes(LambdaTracer.INSTANCE.scopeManager(), createSpans);
+    }
+
+    /**
+     * The same with opentracing-util's scope manager, which allocates a scope per activation.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Span activateThreadLocalScopes() {
+        return activateNestedScopes(threadLocalScopeManager, createSpans);
+    }
+
+    private static Span activateNestedScopes(ScopeManager scopeManager, int depth) {
+        if (depth == 0) {
+            return scopeManager.activeSpan();
+        }
+        try (Scope scope = scopeManager.activate(NoopSpan.INSTANCE)) {
+            return activateNestedScopes(scopeManager, depth - 1);
+        }
+    }
+
     private void createNestedSpan(Span span, int depth) {
         if (depth > 0) {
             final Span nestedSpan = GlobalTracer.get().buildSpan("nested-span-" + depth).start();
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A handler fanning out over a thread pool: each worker finishes its share of a transaction's child spans into the
+ * span reservoir at once, then the root collects them. The total number of spans is fixed, so with enough cores the
+ * time per transaction should fall as workers are added rather than climb with contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SpanCollectionBenchmark {
+
+    @Param({ "1", "2", "4", "8" })
+    public int threads;
+
+    @Param({ "2000" })
+    public int spans;
+
+    private ExecutorService executor;
+    private List<List<LambdaSpanContext>> shares;
+
+    @Setup
+    public void createSpans() {
+        executor = Executors.newFixedThreadPool(threads);
+        final LambdaSpan root = new LambdaSpan("root", 0, 0, new HashMap<>(), null, "root");
+        shares = new ArrayList<>();
+        for (int thread = 0; thread < threads; thread++) {
+            final List<LambdaSpanContext> share = new ArrayList<>();
+            for (int i = thread; i < spans; i += threads) {
+                final LambdaSpan span = new LambdaSpan("child", 0, 0, new HashMap<>(), root, "child" + i);
+                span.setContext(new LambdaSpanContext(span, null, null, null, null));
+                share.add((LambdaSpanContext) span.context());
+            }
+            shares.add(share);
+        }
+    }
+
+    @TearDown
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public List<LambdaSpanContext> collect() throws InterruptedException {
+        final SpanReservoir reservoir = new SpanReservoir(spans);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (List<LambdaSpanContext> share : shares) {
+            executor.execute(() -> {
+                for (LambdaSpanContext context : share) {
+                    reservoir.add(context);
+                }
+                done.countDown();
+            });
+        }
+        done.await();
+        final List<LambdaSpanContext> collected = new ArrayList<>(spans + 1);
+        reservoir.addTo(collected);
+        return collected;
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded cost of tagging a span, which guards its tags with its monitor, next to putting the same tags in
+ * the HashMap spans used to keep them in.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TagBenchmark {
+
+    private int counter;
+
+    @Benchmark
+    public Map<String, Object> hashMapPut() {
+        final int value = counter++;
+        final Map<String, Object> tags = new HashMap<>();
+        tags.put("component", "aws-sdk");
+        tags.put("span.kind", "client");
+        tags.put("http.method", "GET");
+        tags.put("http.url", "https://sqs.us-east-1.amazonaws.com/");
+        tags.put("http.status_code", 200);
+        tags.put("aws.requestId", "request");
+        tags.put("retries", value);
+        tags.put("cached", false);
+        return tags;
+    }
+
+    @Benchmark
+    public LambdaSpan setTag() {
+        final int value = counter++;
+        final LambdaSpan span = new LambdaSpan("child", 0, 0, new SpanAttributes(), null, 1L);
+        span.setTag("component", "aws-sdk");
+        span.setTag("span.kind", "client");
+        span.setTag("http.method", "GET");
+        span.setTag("http.url", "https://sqs.us-east-1.amazonaws.com/");
+        span.setTag("http.status_code", 200);
+        span.setTag("aws.requestId", "request");
+        span.setTag("retries", value);
+        span.setTag("cached", false);
+        return span;
+    }
+
+}
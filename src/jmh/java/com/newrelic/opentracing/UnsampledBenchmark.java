@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing;
+
+import com.newrelic.opentracing.logging.Log;
+import com.newrelic.opentracing.logging.Logger;
+import com.newrelic.opentracing.state.DistributedTracingState;
+import com.newrelic.opentracing.state.PrioritySamplingState;
+import com.newrelic.opentracing.state.TransactionState;
+import io.opentracing.Span;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A transaction with a root and a flat set of tagged child spans, sampled or not. Run with the gc profiler to compare
+ * allocation per transaction.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UnsampledBenchmark {
+
+    @Param({ "true", "false" })
+    public boolean sampled;
+
+    @Param({ "20" })
+    public int childSpans;
+
+    @Setup
+    public void discardOutput() {
+        Log.setInstance(new Logger() {
+            @Override
+            public void out(String message) {
+            }
+
+            @Override
+            public void out(byte[] message, int offset, int length) {
+            }
+
+            @Override
+            public void debug(String message) {
+            }
+
+            @Override
+            public boolean isDebugEnabled() {
+                return false;
+            }
+
+            @Override
+            public List<String> getLogs() {
+                return Collections.emptyList();
+            }
+        });
+    }
+
+    @Benchmark
+    public LambdaSpan transaction() {
+        final LambdaSpan root = new LambdaSpan("root", System.currentTimeMillis(), System.nanoTime(), new HashMap<>(), null, "rootGuid");
+        root.setTag("aws.lambda.arn", "arn:aws:lambda:us-east-1:123456789012:function:handler");
+        root.setContext(new LambdaSpanContext(root, new DistributedTracingState(),
+                new PrioritySamplingState(sampled ? 1.5f : 0.5f, sampled), new TransactionState(), new LambdaCollector()));
+        for (int i = 0; i < childSpans; i++) {
+            final Span child = LambdaTracer.INSTANCE.buildSpan("child").asChildOf(root).start();
+            child.setTag("component", "aws-sdk");
+            child.setTag("http.method", "GET");
+            child.setTag("retries", i);
+            child.finish();
+        }
+        root.finish();
+        return root;
+    }
+
+}
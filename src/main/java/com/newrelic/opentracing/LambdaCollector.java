@@ -8,27 +8,177 @@ package com.newrelic.opentracing;
 import com.newrelic.opentracing.events.ErrorEvent;
 import com.newrelic.opentracing.events.TransactionEvent;
 import com.newrelic.opentracing.logging.Log;
+import com.newrelic.opentracing.payload.PayloadBuffer;
+import com.newrelic.opentracing.payload.PayloadEncoder;
+import com.newrelic.opentracing.payload.PayloadEncoderPool;
+import com.newrelic.opentracing.payload.PayloadFragments;
 import com.newrelic.opentracing.pipe.NrTelemetryPipe;
 import com.newrelic.opentracing.state.DistributedTracingState;
 import com.newrelic.opentracing.state.TransactionState;
 import com.newrelic.opentracing.traces.ErrorTrace;
-import com.newrelic.opentracing.util.ProtocolUtil;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Collects the spans of an invocation and writes them as one payload when its primary root span finishes.
+ *
+ * The primary root is the first root span started while no invocation is open. Root spans started on other threads
+ * before it finishes, by background work or libraries that start spans without an active parent, join its
+ * invocation: their spans share its reservoir, and they're reported, with their transaction events and errors, in
+ * the primary's payload rather than in payloads of their own. A root started on the primary's own thread opens a new
+ * invocation, so a primary root that's never finished doesn't swallow later invocations.
+ *
+ * Spans that finish after the payload of their invocation was written are kept, up to
+ * {@code NEW_RELIC_LATE_SPAN_BUFFER_SIZE} of them, and reported with the next payload, or when the container shuts
+ * down. Once its payload is written, a collector lets go of the spans it held, since spans that are still referenced
+ * keep it reachable.
+ */
 public class LambdaCollector {
 
     private static final File NAMED_PIPE_PATH_FILE = new File("/tmp/newrelic-telemetry");
     private static final NrTelemetryPipe NR_TELEMETRY_PIPE = new NrTelemetryPipe(NAMED_PIPE_PATH_FILE);
     private static final String AWS_EXECUTION_ENV = System.getenv("AWS_EXECUTION_ENV");
+    // How long a payload write may block on the telemetry pipe before falling back to stdout
+    private static final long PIPE_WRITE_TIMEOUT_MILLIS = parseLong(System.getenv("NEW_RELIC_TELEMETRY_PIPE_TIMEOUT_MS"), 1000);
+    // Encoders (deflater and buffers) outlive invocations, so warm invocations don't reallocate them
+    private static final PayloadEncoderPool PAYLOAD_ENCODERS = new PayloadEncoderPool(4,
+            (int) parseLong(System.getenv("NEW_RELIC_PAYLOAD_MAX_BYTES"), PayloadEncoder.DEFAULT_MAX_LINE_BYTES));
+
+    // Compress child spans as they finish instead of when the root span does. Streamed spans aren't sampled by
+    // score like the reservoir's: the first SPAN_RESERVOIR_SIZE are reported, the rest only counted
+    private static final boolean STREAM_SPANS = Boolean.parseBoolean(System.getenv("NEW_RELIC_STREAM_SPANS"));
+
+    // Most spans kept per invocation; the rest are only counted
+    private static final int SPAN_RESERVOIR_SIZE = (int) parseLong(System.getenv("NEW_RELIC_SPAN_RESERVOIR_SIZE"), 2000);
+
+    // How long a finishing root span waits for child spans still tied to asynchronous operations
+    private static final long ASYNC_SPAN_TIMEOUT_MILLIS = parseLong(System.getenv("NEW_RELIC_ASYNC_SPAN_TIMEOUT_MS"), 1000);
+
+    // Most spans kept for the next payload after finishing too late for their own; the rest are only counted
+    private static final LateSpanBuffer LATE_SPANS = new LateSpanBuffer(
+            (int) parseLong(System.getenv("NEW_RELIC_LATE_SPAN_BUFFER_SIZE"), 1000));
+    private static final AtomicBoolean SHUTDOWN_HOOK_ADDED = new AtomicBoolean();
+
+    // The invocation that root spans started elsewhere join, until its primary root finishes
+    private static final AtomicReference<LambdaCollector> OPEN_INVOCATION = new AtomicReference<>();
+
+    private final SpanReservoir reservoir;
+    private final boolean streamSpans;
+    private final long asyncSpanTimeoutMillis;
+
+    // guarded by this: child spans that finish when an asynchronous operation completes, and haven't yet
+    private int pendingAsyncSpans;
+
+    // Streaming mode, guarded by this: the payload child spans are compressed into, and the spans themselves, only
+    // kept when debug logging needs the uncompressed data. Spans are compressed holding the encoder's lock rather
+    // than this one, counted in streamsInFlight meanwhile.
+    private PayloadEncoder streamEncoder;
+    private List<LambdaSpan> streamedSpans;
+    private int streamedCount;
+    private long streamDropped;
+    private int streamsInFlight;
+    private boolean streamAbandoned;
+    private boolean rootFinished;
+
+    // guarded by this: the invocation's primary root span and its thread, and the other roots that have finished.
+    // All three are let go when the invocation closes, since spans finishing late still reach this collector.
+    private boolean primaryJoined;
+    private LambdaSpan primaryRoot;
+    private Thread primaryThread;
+    private List<LambdaSpanContext> finishedRoots;
 
-    private final Queue<LambdaSpanContext> reservoir = new LinkedBlockingQueue<>();
+    public LambdaCollector() {
+        this(STREAM_SPANS, SPAN_RESERVOIR_SIZE);
+    }
+
+    LambdaCollector(boolean streamSpans, int reservoirSize) {
+        this(streamSpans, reservoirSize, ASYNC_SPAN_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param streamSpans whether to compress child spans as they finish, see {@code NEW_RELIC_STREAM_SPANS}; the
+     *                    first {@code reservoirSize} are kept, rather than the reservoir's sample
+     * @param reservoirSize most spans reported per invocation, besides the root
+     * @param asyncSpanTimeoutMillis how long the root span waits for asynchronous child spans, see
+     *                               {@code NEW_RELIC_ASYNC_SPAN_TIMEOUT_MS}
+     */
+    LambdaCollector(boolean streamSpans, int reservoirSize, long asyncSpanTimeoutMillis) {
+        this.streamSpans = streamSpans;
+        this.reservoir = new SpanReservoir(reservoirSize);
+        this.asyncSpanTimeoutMillis = asyncSpanTimeoutMillis;
+    }
+
+    /**
+     * @param root a new root span
+     * @return the collector of the open invocation, joined by the root, or of a new one the root is the primary of
+     */
+    static LambdaCollector forRoot(LambdaSpan root) {
+        final LambdaCollector open = OPEN_INVOCATION.get();
+        if (open != null) {
+            if (open.join(root)) {
+                return open;
+            }
+            // if its primary root never finished, the open invocation would hold its stream encoder for good
+            open.abandonStream();
+        }
+        final LambdaCollector collector = new LambdaCollector();
+        collector.join(root);
+        OPEN_INVOCATION.set(collector);
+        return collector;
+    }
+
+    /**
+     * @return whether the root span is part of this invocation
+     */
+    private synchronized boolean join(LambdaSpan root) {
+        if (!primaryJoined) {
+            primaryJoined = true;
+            primaryRoot = root;
+            primaryThread = Thread.currentThread();
+            return true;
+        }
+        return !rootFinished && primaryThread != Thread.currentThread();
+    }
+
+    /**
+     * A child span will finish when an asynchronous operation completes, see {@link LambdaSpan#finishOnCompletion}.
+     */
+    synchronized void asyncSpanStarted() {
+        pendingAsyncSpans++;
+    }
+
+    /**
+     * An asynchronous child span has finished, and is in the reservoir.
+     */
+    synchronized void asyncSpanFinished() {
+        if (--pendingAsyncSpans == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Give asynchronous child spans still running a bounded time to finish, so they make it into the payload.
+     * @return number of them that didn't finish in time
+     */
+    private synchronized int awaitAsyncSpans() {
+        if (pendingAsyncSpans == 0) {
+            return 0;
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(asyncSpanTimeoutMillis);
+        try {
+            long remaining;
+            while (pendingAsyncSpans > 0 && (remaining = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return pendingAsyncSpans;
+    }
 
     /**
      * Push finished spans into the reservoir. When the root span finishes, log them only if they're sampled.
@@ -37,68 +187,378 @@ public class LambdaCollector {
      * @param txnState The trace's transaction state.
      */
     public void spanFinished(LambdaSpanContext context, DistributedTracingState dtState, TransactionState txnState) {
-        reservoir.add(context);
+        final LambdaSpan span = context.getSpan();
+        if (!span.isRootSpan()) {
+            final boolean hasError = span.getLog("error.object") != null;
+            if (!span.isSampled()) {
+                // Unsampled spans are only needed for their error events
+                if (hasError && !reservoir.add(context)) {
+                    lateSpanFinished(context);
+                }
+            } else if (streamSpans) {
+                if (!stream(context)) {
+                    lateSpanFinished(context);
+                } else if (hasError) {
+                    // Only spans with errors are needed when the root finishes. If it finished in the meantime, the
+                    // span is in its payload already, and only the error is missed
+                    reservoir.add(context);
+                }
+            } else if (!reservoir.add(context)) {
+                lateSpanFinished(context);
+            }
+            return;
+        }
+        if (!isPrimary(span)) {
+            rootJoinedFinished(context);
+            return;
+        }
 
-        if (context.getSpan().isRootSpan()) {
-            LambdaSpan rootSpan = context.getSpan();
+        final int unfinishedAsyncSpans = awaitAsyncSpans();
+        final LambdaSpan rootSpan = span;
+        final List<LambdaSpanContext> roots = finishInvocation(context);
+        // spans that finished after the previous invocation's payload was written go out with this one
+        final List<LambdaSpanContext> late = LATE_SPANS.drain();
+        final List<LambdaSpanContext> contexts = new ArrayList<>(roots.size() + reservoir.size() + late.size());
+        contexts.addAll(roots);
+        reservoir.drainTo(contexts);
+        contexts.addAll(late);
 
-            List<LambdaSpanContext> contexts = new ArrayList<>(reservoir);
-            Collections.reverse(contexts);
+        final List<LambdaSpanContext> reported;
+        if (streamSpans) {
+            // the children are in the stream already
+            reported = new ArrayList<>(roots);
+            reported.addAll(late);
+        } else {
+            reported = contexts;
+        }
+        report(arnOf(rootSpan), contexts, reported);
+        logAttributeLimits();
+        logLateSpans(late.size());
+        if (unfinishedAsyncSpans > 0) {
+            Log.getInstance().debug(() -> unfinishedAsyncSpans + " asynchronous spans were still running after "
+                    + asyncSpanTimeoutMillis + " ms and will be reported with the next payload");
+        }
+        if (Log.getInstance().isDebugEnabled()) {
+            LambdaTracer.INSTANCE.scopeManager().reportLeakedScopes(rootSpan);
+        }
+    }
 
-            Errors errors = new Errors();
-            // Record errors after root span has finished. By now, txn name has been set
-            contexts.forEach(c -> errors.recordErrors(c, dtState, txnState));
-            Object arnTag = rootSpan.getTag("aws.lambda.arn");
-            final String arn = arnTag instanceof String ? (String) arnTag : "";
+    /**
+     * Write the errors and transaction events of the given spans, and the span events of those reported, leaving out
+     * spans of unsampled traces, which are only kept for their errors.
+     *
+     * @param contexts the spans, the primary root span first
+     * @param reported the spans whose span events are written
+     */
+    private void report(String arn, List<LambdaSpanContext> contexts, List<LambdaSpanContext> reported) {
+        final Errors errors = new Errors();
+        final List<TransactionEvent> txnEvents = new ArrayList<>(1);
+        for (LambdaSpanContext c : contexts) {
+            // Record errors after root span has finished. By now, txn name has been set. Spans of other roots, and
+            // late spans, belong to their own traces and transactions
+            errors.recordErrors(c, c.getDistributedTracingState(), c.getTransactionState());
+            if (c.getSpan().isRootSpan()) {
+                txnEvents.add(new TransactionEvent(c.getSpan(), c.getTransactionState(), c.getDistributedTracingState()));
+            }
+        }
 
-            // Do not collect Spans if sampled=false, clear reservoir and set spans to empty list
-            List<LambdaSpan> spans;
-            if (!rootSpan.isSampled()) {
-                spans = Collections.emptyList();
-            } else {
-                spans = contexts.stream()
-                        .map(LambdaSpanContext::getSpan)
-                        .collect(Collectors.toList());
+        final List<LambdaSpan> spans = new ArrayList<>(reported.size());
+        for (LambdaSpanContext c : reported) {
+            if (c.isSampled()) {
+                spans.add(c.getSpan());
             }
+        }
+        if (txnEvents.size() == 1) {
+            // the usual single root, through the hook subclasses written for it override
+            writeData(arn, spans, txnEvents.get(0), errors.getErrorEvents(), errors.getErrorTraces());
+        } else {
+            writeData(arn, spans, txnEvents, errors.getErrorEvents(), errors.getErrorTraces());
+        }
+    }
 
-            final TransactionEvent txnEvent = new TransactionEvent(rootSpan, txnState, dtState);
-            final List<ErrorEvent> errorEvents = errors.getErrorEvents();
-            final List<ErrorTrace> errorTraces = errors.getErrorTraces();
-            writeData(arn, spans, txnEvent, errorEvents, errorTraces);
+    /**
+     * Keep a span that finished after its invocation's payload was written for the next payload, or for shutdown.
+     */
+    private static void lateSpanFinished(LambdaSpanContext context) {
+        if (LATE_SPANS.add(context) && !SHUTDOWN_HOOK_ADDED.get() && SHUTDOWN_HOOK_ADDED.compareAndSet(false, true)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(LambdaCollector::flushLateSpans, "newrelic-late-spans"));
         }
     }
 
     /**
-     * Write all the payload data to the console using standard out. This is the only method that should call the Logger#out method.
+     * Write the late spans still waiting for a payload, when the container shuts down.
+     */
+    static void flushLateSpans() {
+        final List<LambdaSpanContext> late = LATE_SPANS.drain();
+        if (!late.isEmpty()) {
+            new LambdaCollector().report(arnOf(late.get(0).getRootSpan()), late, late);
+        }
+    }
+
+    /**
+     * @return number of spans, across all invocations, that finished after their invocation's payload was written
+     */
+    public static long lateSpanCount() {
+        return LATE_SPANS.lateCount();
+    }
+
+    /**
+     * @return number of late spans dropped, across all invocations, because too many were waiting for a payload
+     */
+    public static long droppedLateSpanCount() {
+        return LATE_SPANS.droppedCount();
+    }
+
+    private synchronized boolean isPrimary(LambdaSpan root) {
+        // collectors made for a single root don't know it; once closed, no root is the primary one
+        return !primaryJoined || primaryRoot == root;
+    }
+
+    /**
+     * Keep a root span that joined the invocation for the primary root's payload.
+     */
+    private void rootJoinedFinished(LambdaSpanContext context) {
+        synchronized (this) {
+            if (!rootFinished) {
+                if (finishedRoots == null) {
+                    finishedRoots = new ArrayList<>();
+                }
+                finishedRoots.add(context);
+                return;
+            }
+        }
+        lateSpanFinished(context);
+    }
+
+    /**
+     * Close the invocation: root spans started from now on open a new one, and this one's spans are written.
+     *
+     * @param primary the primary root span's context
+     * @return the contexts of the root spans to report, the primary's first
+     */
+    private List<LambdaSpanContext> finishInvocation(LambdaSpanContext primary) {
+        OPEN_INVOCATION.compareAndSet(this, null);
+        final List<LambdaSpanContext> roots = new ArrayList<>();
+        roots.add(primary);
+        synchronized (this) {
+            rootFinished = true;
+            if (finishedRoots != null) {
+                roots.addAll(finishedRoots);
+                finishedRoots = null;
+            }
+            // roots that joined and finish late aren't taken for the primary, which primaryJoined still records
+            primaryRoot = null;
+            primaryThread = null;
+        }
+        return roots;
+    }
+
+    /**
+     * Compress a finished child span into the invocation's payload, starting the payload with the first one.
+     */
+    private boolean stream(LambdaSpanContext context) {
+        final LambdaSpan span = context.getSpan();
+        final PayloadEncoder encoder;
+        final List<LambdaSpan> debugSpans;
+        synchronized (this) {
+            if (rootFinished || streamAbandoned) {
+                // too late for this invocation's payload
+                return false;
+            }
+            if (streamedCount >= reservoir.capacity()) {
+                streamDropped++;
+                return true;
+            }
+            if (streamEncoder == null) {
+                streamEncoder = PAYLOAD_ENCODERS.acquire();
+                streamEncoder.begin(PayloadFragments.forFunction(arnOf(context.getRootSpan()), AWS_EXECUTION_ENV));
+                if (Log.getInstance().isDebugEnabled()) {
+                    streamedSpans = new ArrayList<>();
+                }
+            }
+            encoder = streamEncoder;
+            debugSpans = streamedSpans;
+            streamedCount++;
+            streamsInFlight++;
+        }
+        try {
+            // spans finishing on other threads only wait for the compression, not for the collector
+            synchronized (encoder) {
+                encoder.addSpan(span);
+                if (debugSpans != null) {
+                    debugSpans.add(span);
+                }
+            }
+        } finally {
+            synchronized (this) {
+                if (--streamsInFlight == 0) {
+                    notifyAll();
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wait for spans being compressed into the stream. Called holding this, once no more can start.
+     */
+    private void awaitStreams() {
+        boolean interrupted = false;
+        while (streamsInFlight > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // the encoder can't be handed on while a span is being compressed into it
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A new invocation started on the primary root's thread before the primary root finished: return the stream
+     * encoder to the pool. The spans streamed so far are counted as dropped, and spans finishing from now on are
+     * handled like late ones, reported with the next payload.
+     */
+    void abandonStream() {
+        final PayloadEncoder encoder;
+        synchronized (this) {
+            if (rootFinished || streamAbandoned) {
+                return;
+            }
+            streamAbandoned = true;
+            awaitStreams();
+            encoder = streamEncoder;
+            streamDropped += streamedCount;
+            streamEncoder = null;
+            streamedSpans = null;
+        }
+        if (encoder != null) {
+            PAYLOAD_ENCODERS.release(encoder);
+        }
+    }
+
+    private static void logLateSpans(int reported) {
+        if (reported > 0) {
+            Log.getInstance().debug(() -> reported + " spans that finished after their root span's payload was written were "
+                    + "added to this one; " + LATE_SPANS.lateCount() + " late spans so far, " + LATE_SPANS.droppedCount() + " dropped");
+        }
+    }
+
+    private static void logAttributeLimits() {
+        final long dropped = SpanAttributes.droppedCount();
+        final long truncated = SpanAttributes.truncatedCount();
+        if (dropped > 0 || truncated > 0) {
+            Log.getInstance().debug(() -> "Span attribute limits applied: " + dropped + " attributes dropped, " + truncated
+                    + " values truncated");
+        }
+    }
+
+    private static String arnOf(LambdaSpan rootSpan) {
+        final Object arnTag = rootSpan.getTag("aws.lambda.arn");
+        return arnTag instanceof String ? (String) arnTag : "";
+    }
+
+    /**
+     * Write the payload of an invocation with a single root span. Invocations that merged several root spans are
+     * written with {@link #writeData(String, List, List, List, List)} instead, which this delegates to.
      * @param arn the function's ARN
+     * @param spans spans captured; when streaming, only those that weren't streamed as they finished
+     * @param txnEvent the transaction event synthesized from the root span
      * @param errorEvents errors captured
      * @param errorTraces error traces captured
-     * @param spans spans captured
-     * @param txnEvent the transaction event synthesized from the root span
      */
     protected void writeData(String arn,
                            List<LambdaSpan> spans,
                            TransactionEvent txnEvent,
                            List<ErrorEvent> errorEvents,
                            List<ErrorTrace> errorTraces) {
-        final Map<String, Object> metadata = ProtocolUtil.getMetadata(arn, AWS_EXECUTION_ENV);
-        final Map<String, Object> data = ProtocolUtil.getData(spans, txnEvent, errorEvents, errorTraces);
+        writeData(arn, spans, Collections.singletonList(txnEvent), errorEvents, errorTraces);
+    }
+
+    /**
+     * Write all the payload data to the console using standard out. This is the only method that should call the Logger#out method.
+     * Data too large for one log event is split across several self-contained payload lines.
+     * @param arn the function's ARN
+     * @param errorEvents errors captured
+     * @param errorTraces error traces captured
+     * @param spans spans captured; when streaming, only those that weren't streamed as they finished. Spans the
+     *              reservoir evicted are reported in events_seen.
+     * @param txnEvents the transaction events synthesized from the root spans, the primary's first
+     */
+    protected void writeData(String arn,
+                           List<LambdaSpan> spans,
+                           List<TransactionEvent> txnEvents,
+                           List<ErrorEvent> errorEvents,
+                           List<ErrorTrace> errorTraces) {
+        final PayloadEncoder streamed;
+        final List<LambdaSpan> streamedSpans;
+        final long spansDropped;
+        synchronized (this) {
+            rootFinished = true;
+            awaitStreams();
+            spansDropped = spans.isEmpty() ? 0 : streamSpans ? streamDropped : reservoir.seen() - reservoir.size();
+            streamed = streamEncoder;
+            streamedSpans = this.streamedSpans;
+            streamEncoder = null;
+            this.streamedSpans = null;
+        }
 
-        final List<Object> payload = Arrays.asList(2, "NR_LAMBDA_MONITORING", metadata, ProtocolUtil.compressAndEncode(JSONObject.toJSONString(data)));
+        final PayloadEncoder encoder = streamed != null ? streamed : PAYLOAD_ENCODERS.acquire();
+        try {
+            if (streamed == null) {
+                final PayloadFragments fragments = PayloadFragments.forFunction(arn, AWS_EXECUTION_ENV);
+                encoder.encode(fragments, spans, spans.size() + spansDropped, txnEvents, errorEvents, errorTraces,
+                        Log.getInstance().isDebugEnabled());
+            } else {
+                for (LambdaSpan span : spans) {
+                    encoder.addSpan(span);
+                }
+                encoder.dropSpans(spansDropped);
+                encoder.finish(txnEvents, errorEvents, errorTraces);
+                if (streamedSpans != null) {
+                    streamedSpans.addAll(spans);
+                    encoder.keepDebugData(streamedSpans, txnEvents, errorEvents, errorTraces);
+                }
+            }
+            writePayload(encoder);
+        } finally {
+            PAYLOAD_ENCODERS.release(encoder);
+        }
+    }
 
-        if (NR_TELEMETRY_PIPE.namedPipeExists()) {
+    /**
+     * @return the telemetry pipe, whose counters show how often payloads fell back to stdout
+     */
+    public static NrTelemetryPipe getTelemetryPipe() {
+        return NR_TELEMETRY_PIPE;
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        if (value != null) {
             try {
-                NR_TELEMETRY_PIPE.writeToPipe(JSONArray.toJSONString(payload));
-                return;
-            } catch (IOException ignored) {
-                //Errors will fall through, and result in the log write.
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException ignored) {
             }
         }
+        return defaultValue;
+    }
+
+    private void writePayload(PayloadEncoder encoder) {
+        final PayloadBuffer payload = encoder.payload();
+
+        // Errors and timeouts that left nothing in the pipe fall through, and result in the log write.
+        if (NR_TELEMETRY_PIPE.namedPipeExists()
+                && NR_TELEMETRY_PIPE.writeToPipe(PIPE_WRITE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS, payload.asByteBuffer())) {
+            return;
+        }
 
-        Log.getInstance().out(JSONArray.toJSONString(payload));
+        Log.getInstance().out(payload.array(), 0, payload.size());
 
-        final List<Object> debugPayload = Arrays.asList(2, "DEBUG", metadata, data);
-        Log.getInstance().debug(JSONArray.toJSONString(debugPayload));
+        // Only built, and the uncompressed data only kept, when debug logging is enabled
+        Log.getInstance().debug(encoder::debugPayload);
     }
 
 }
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing;
+
+import io.opentracing.Scope;
+import io.opentracing.ScopeManager;
+import io.opentracing.Span;
+
+/**
+ * Scope manager of the {@link LambdaTracer}. Spans activated with {@link #activate(Span)} are tracked on a per-thread
+ * stack whose frames are reused, so activation only allocates the returned scope; see {@link ScopeStack} for the rules
+ * on closing scopes, and for the leaked scopes it reports when debug logging is enabled.
+ */
+public class LambdaScopeManager implements ScopeManager {
+
+    private final ThreadLocal<ScopeStack> stacks = ThreadLocal.withInitial(ScopeStack::new);
+
+    @Override
+    public Scope activate(Span span) {
+        return stacks.get().push(span);
+    }
+
+    @Override
+    public Span activeSpan() {
+        final ScopeStack.Frame top = stacks.get().top();
+        return top == null ? null : top.span;
+    }
+
+    /**
+     * Log the scopes still open on this thread, other than the root span's, when the root span finishes.
+     */
+    void reportLeakedScopes(Span root) {
+        stacks.get().reportLeaks(root);
+    }
+
+}
@@ -6,9 +6,12 @@
 package com.newrelic.opentracing;
 
 import com.newrelic.opentracing.events.Event;
+import com.newrelic.opentracing.util.DistributedTraceUtil;
+import com.newrelic.opentracing.util.SpanCategory;
 import com.newrelic.opentracing.util.SpanCategoryDetection;
 import com.newrelic.opentracing.util.Stacktraces;
 import com.newrelic.opentracing.util.TimeUtil;
+import com.newrelic.opentracing.util.TransactionNames;
 import io.opentracing.Span;
 import io.opentracing.SpanContext;
 import io.opentracing.tag.Tag;
@@ -16,40 +19,96 @@ import io.opentracing.tag.Tag;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
-
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Spans are held until their root finishes, often thousands per invocation, so the layout is kept small: tags live
+ * in a compact {@link SpanAttributes} (handed over by the builder rather than copied), logs and baggage are only
+ * allocated when first used, and the finished flag is a plain int flipped through a field updater. The span id is a
+ * long, only rendered as a hex guid when it's serialized or injected.
+ *
+ * Finishing a span freezes it: the category is classified once, tags, logs, baggage and the operation name stop
+ * accepting changes, and state nothing reads afterwards (baggage, spare tag capacity, logs without an error) is
+ * released. Intrinsics and user attributes of a finished span are built once, on first request, and cached.
+ *
+ * Handlers often tag one span from several worker threads, so everything that reads or changes tags, logs and
+ * baggage holds the span's own monitor. There's no lock shared between spans, so threads only ever wait on each
+ * other when they touch the same span, and an uncontended monitor only adds a few nanoseconds to a change.
+ * Freezing holds the monitor too, so a change racing with finish either lands before the snapshot or not at all.
+ */
 public class LambdaSpan extends Event implements Span {
 
+    private static final String TYPE = "Span";
+    private static final AtomicIntegerFieldUpdater<LambdaSpan> FINISHED = AtomicIntegerFieldUpdater.newUpdater(LambdaSpan.class, "finished");
+
     private LambdaSpanContext context;
     private long durationInMicros; // open tracing duration is micro-seconds
-    private String operationName;
+    private volatile String operationName;
 
-    private final String type;
     private final long startTimeInNanos; // used to compute accurate duration
     private final long timestamp; // start (epoch) time in milli-seconds
-    private final String guid;
-    private final String parentId;
-    private final boolean isRootSpan;
-
-    private final Map<String, Object> tags = new HashMap<>();
-    private final Map<String, LogEntry> logs = new HashMap<>();
-    private final Map<String, String> baggage = new HashMap<>();
-    private final AtomicBoolean isFinished = new AtomicBoolean(false);
+    private final long id; // rendered as the guid on demand; 0 when the guid was given explicitly
+    private final String guid; // only set when given explicitly
+    // only the parent's identity is kept, so a span that finishes late doesn't keep its ancestors reachable
+    private final long parentId; // 0 for a root span, or when the parent's guid was given explicitly
+    private final String parentGuid; // only set when the parent's guid was given explicitly
+    private volatile int finished;
+
+    private final SpanAttributes tags;
+    private Map<String, LogEntry> logs; // created on first log
+    private Map<String, String> baggage; // created on first baggage item
+
+    // snapshot of the finished span
+    private volatile SpanCategory category;
+    private volatile Map<String, Object> intrinsics; // built on first request
+    private volatile Map<String, Object> userAttributes; // built on first request
 
     LambdaSpan(String operationName, long timestamp, long startTimeInNanos, Map<String, Object> tags, LambdaSpan parentSpan, String guid) {
-        this.type = "Span";
+        this(operationName, timestamp, startTimeInNanos, new SpanAttributes(tags), parentSpan, 0, guid);
+    }
+
+    /**
+     * @param tags initial tags, owned by the span from now on
+     * @param id non-zero span id, see {@link DistributedTraceUtil#nextId()}
+     */
+    LambdaSpan(String operationName, long timestamp, long startTimeInNanos, SpanAttributes tags, LambdaSpan parentSpan, long id) {
+        this(operationName, timestamp, startTimeInNanos, tags, parentSpan, id, null);
+    }
+
+    private LambdaSpan(String operationName, long timestamp, long startTimeInNanos, SpanAttributes tags, LambdaSpan parentSpan, long id,
+                       String guid) {
         this.operationName = operationName;
         this.timestamp = timestamp;
         this.startTimeInNanos = startTimeInNanos;
-        if (tags != null) { this.tags.putAll(tags); }
+        this.tags = tags;
+        this.id = id;
         this.guid = guid;
-        this.isRootSpan = parentSpan == null;
-        this.parentId = parentSpan == null ? null : parentSpan.guid();
+        this.parentId = parentSpan == null ? 0 : parentSpan.id();
+        this.parentGuid = parentSpan == null || parentSpan.id() != 0 ? null : parentSpan.guid();
     }
 
+    /**
+     * @return the span's guid; renders a new string on each call, prefer {@link #id()} when writing it out
+     */
     public String guid() {
-        return guid;
+        return guid != null ? guid : DistributedTraceUtil.toGuid(id);
+    }
+
+    /**
+     * @return the span's id, or 0 if the span was given a guid that isn't backed by an id
+     */
+    public long id() {
+        return id;
+    }
+
+    /**
+     * @return the parent span's id, or 0 for a root span or a parent that was given a guid; see {@link #getParentId()}
+     */
+    public long parentId() {
+        return parentId;
     }
 
     public String getOperationName() {
@@ -73,7 +132,7 @@ public class LambdaSpan extends Event implements Span {
     }
 
     public boolean isRootSpan() {
-        return isRootSpan;
+        return parentId == 0 && parentGuid == null;
     }
 
     @Override
@@ -81,45 +140,93 @@ public class LambdaSpan extends Event implements Span {
         return context;
     }
 
-    public Object getTag(String key) {
+    public synchronized Object getTag(String key) {
         if (key == null) {
             return null;
         }
         return tags.get(key);
     }
 
-    public LogEntry getLog(String eventName) {
-        return logs.get(eventName);
+    /**
+     * @return the span's tags; read-only by convention, use setTag to change them. Only safe to walk once the span
+     * has finished, or on the one thread that changes it.
+     */
+    public SpanAttributes getAttributes() {
+        return tags;
+    }
+
+    public synchronized LogEntry getLog(String eventName) {
+        return logs == null ? null : logs.get(eventName);
     }
 
     @Override
-    public Span setTag(String key, String value) {
-        if (key != null && value != null) {
+    public synchronized Span setTag(String key, String value) {
+        if (key != null && value != null && isMutable()) {
             tags.put(key, value);
         }
         return this;
     }
 
     @Override
-    public Span setTag(String key, boolean value) {
-        if (key != null) {
+    public synchronized Span setTag(String key, boolean value) {
+        if (key != null && isMutable()) {
             tags.put(key, value);
         }
         return this;
     }
 
     @Override
-    public Span setTag(String key, Number value) {
-        if (key != null && value != null) {
+    public synchronized Span setTag(String key, Number value) {
+        if (key != null && value != null && isMutable()) {
+            tags.put(key, value);
+        }
+        return this;
+    }
+
+    /**
+     * Same as {@link #setTag(String, Number)}, without boxing the value.
+     */
+    public synchronized Span setTag(String key, int value) {
+        if (key != null && isMutable()) {
+            tags.put(key, value);
+        }
+        return this;
+    }
+
+    /**
+     * Same as {@link #setTag(String, Number)}, without boxing the value.
+     */
+    public synchronized Span setTag(String key, long value) {
+        if (key != null && isMutable()) {
+            tags.put(key, value);
+        }
+        return this;
+    }
+
+    /**
+     * Same as {@link #setTag(String, Number)}, without boxing the value.
+     */
+    public synchronized Span setTag(String key, float value) {
+        if (key != null && isMutable()) {
+            tags.put(key, value);
+        }
+        return this;
+    }
+
+    /**
+     * Same as {@link #setTag(String, Number)}, without boxing the value.
+     */
+    public synchronized Span setTag(String key, double value) {
+        if (key != null && isMutable()) {
             tags.put(key, value);
         }
         return this;
     }
 
     @Override
-    public <T> Span setTag(Tag<T> tag, T value) {
+    public synchronized <T> Span setTag(Tag<T> tag, T value) {
         if (tag != null) {
-            if (tag.getKey() != null && value != null) {
+            if (tag.getKey() != null && value != null && isMutable()) {
                 tags.put(tag.getKey(), value);
             }
         }
@@ -127,8 +234,10 @@ public class LambdaSpan extends Event implements Span {
     }
 
     @Override
-    public Span setOperationName(String operationName) {
-        this.operationName = operationName;
+    public synchronized Span setOperationName(String operationName) {
+        if (isMutable()) {
+            this.operationName = operationName;
+        }
         return this;
     }
 
@@ -156,15 +265,18 @@ public class LambdaSpan extends Event implements Span {
         return log(timestampMicroseconds / TimeUtil.MICROSECONDS_PER_MILLISECOND, "event", event);
     }
 
-    private Span log(long timestampInMillis, String eventName, Object value) {
+    private synchronized Span log(long timestampInMillis, String eventName, Object value) {
         if (value instanceof StackTraceElement[]) {
             value = Stacktraces.stackTracesToStrings((StackTraceElement[]) value);
         }
 
-        if (value != null) {
+        if (value != null && isMutable()) {
             if ("event".equals(eventName) && "error".equals(value)) {
                 context.setError();
             }
+            if (logs == null) {
+                logs = new HashMap<>(4);
+            }
             logs.put(eventName, new LogEntry(timestampInMillis, value));
         }
 
@@ -180,14 +292,20 @@ public class LambdaSpan extends Event implements Span {
     }
 
     @Override
-    public Span setBaggageItem(String key, String value) {
+    public synchronized Span setBaggageItem(String key, String value) {
+        if (!isMutable()) {
+            return this;
+        }
+        if (baggage == null) {
+            baggage = new HashMap<>(4);
+        }
         baggage.put(key, value);
         return this;
     }
 
     @Override
-    public String getBaggageItem(String key) {
-        return baggage.get(key);
+    public synchronized String getBaggageItem(String key) {
+        return baggage == null ? null : baggage.get(key);
     }
 
     @Override
@@ -197,37 +315,107 @@ public class LambdaSpan extends Event implements Span {
 
     @Override
     public void finish(long finishMicros) {
-        if (isFinished.compareAndSet(false, true)) {
+        if (FINISHED.compareAndSet(this, 0, 1)) {
             durationInMicros = finishMicros - TimeUnit.NANOSECONDS.toMicros(startTimeInNanos);
+            freeze();
             recordTransactionInfo();
             context.collect();
         }
     }
 
+    /**
+     * Finish the span when an asynchronous operation completes, logging the error if it fails. Until then, a finishing
+     * root span waits for it, for up to {@code NEW_RELIC_ASYNC_SPAN_TIMEOUT_MS}, so it's reported in the same payload.
+     *
+     * @param stage the operation the span times
+     * @return a stage with the same outcome, completed once the span has finished
+     */
+    public <T> CompletionStage<T> finishOnCompletion(CompletionStage<T> stage) {
+        // the root span finishing is what flushes the payload, so nothing waits for it
+        final LambdaSpanContext tracked = isRootSpan() ? null : context;
+        if (tracked != null) {
+            tracked.asyncSpanStarted();
+        }
+        return stage.whenComplete((value, error) -> {
+            try {
+                if (error != null) {
+                    logError(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                }
+                finish();
+            } finally {
+                if (tracked != null) {
+                    tracked.asyncSpanFinished();
+                }
+            }
+        });
+    }
+
+    private void logError(Throwable error) {
+        final Map<String, Object> fields = new HashMap<>(8);
+        fields.put("event", "error");
+        fields.put("error.object", error);
+        fields.put("message", error.getMessage());
+        fields.put("error.kind", "Exception");
+        log(fields);
+    }
+
+    private boolean isMutable() {
+        return finished == 0;
+    }
+
+    /**
+     * Take the finish-time snapshot and let go of what nothing reads once the span is finished.
+     */
+    private synchronized void freeze() {
+        category = SpanCategoryDetection.detectSpanCategory(this);
+        tags.trimToSize();
+        baggage = null;
+        if (logs != null && !logs.containsKey("error.object")) {
+            // only the error logs are read after finish, and only when there's an error.object
+            logs = null;
+        }
+    }
+
+    /**
+     * @return the span's category, classified when it finished
+     */
+    public SpanCategory getCategory() {
+        final SpanCategory category = this.category;
+        if (category != null) {
+            return category;
+        }
+        synchronized (this) {
+            return SpanCategoryDetection.detectSpanCategory(this);
+        }
+    }
+
     /**
      * Must be called before spanFinished.
      */
     private void recordTransactionInfo() {
-        if (isRootSpan) {
+        if (isRootSpan()) {
             context.setTransactionDuration(getDurationInSeconds());
 
-            String transactionType = "Other";
+            String transactionType = TransactionNames.OTHER;
 
             Object eventSourceArnTag = getTag("aws.lambda.eventSource.arn");
             final String eventSourceArn = eventSourceArnTag instanceof String ? (String) eventSourceArnTag : "";
             if (eventSourceArn.startsWith("arn:aws:iam") || eventSourceArn.startsWith("arn:aws:elasticloadbalancing")) {
-                transactionType = "WebTransaction";
+                transactionType = TransactionNames.WEB_TRANSACTION;
             }
 
-            final String arn = (String) getTag("aws.lambda.arn");
-            if (arn != null && arn.contains(":")) {
-                context.setTransactionName(transactionType, arn.substring(arn.lastIndexOf(":") + 1));
+            final String transactionName = TransactionNames.forArn(transactionType, (String) getTag("aws.lambda.arn"));
+            if (transactionName != null) {
+                context.setTransactionName(transactionName);
             }
         }
     }
 
-    public Map<String, Object> getTags() {
-        return filterNullMapEntries(tags);
+    /**
+     * @return a copy of the span's tags
+     */
+    public synchronized Map<String, Object> getTags() {
+        return tags.toMap();
     }
 
     public Map<String, Object> filterNullMapEntries(Map<String, Object> map) {
@@ -240,27 +428,51 @@ public class LambdaSpan extends Event implements Span {
         return context.isSampled();
     }
 
+    /**
+     * Get the parentId directly from the parent Span or inbound distributed tracing payload, if either exists.
+     *
+     * @return the parent's guid, or null for a root span without an inbound payload
+     */
+    public String getParentId() {
+        if (parentId != 0) {
+            return DistributedTraceUtil.toGuid(parentId);
+        }
+        if (parentGuid != null && !parentGuid.isEmpty()) {
+            return parentGuid;
+        }
+        if (context != null) {
+            return context.getParentId();
+        }
+        return null;
+    }
+
     @Override
     public Map<String, Object> getIntrinsics() {
+        Map<String, Object> intrinsics = this.intrinsics;
+        if (intrinsics == null) {
+            intrinsics = buildIntrinsics();
+            if (category != null) {
+                this.intrinsics = intrinsics = Collections.unmodifiableMap(intrinsics);
+            }
+        }
+        return intrinsics;
+    }
+
+    private Map<String, Object> buildIntrinsics() {
         final Map<String, Object> intrinsics = new HashMap<>();
-        intrinsics.put("type", type);
+        intrinsics.put("type", TYPE);
         intrinsics.put("name", operationName);
         intrinsics.put("timestamp", timestamp);
         intrinsics.put("duration", getDurationInSeconds()); // duration as float in seconds
-        intrinsics.put("category", SpanCategoryDetection.detectSpanCategory(this).toString());
+        intrinsics.put("category", getCategory().toString());
 
-        if (isRootSpan) {
+        if (isRootSpan()) {
             intrinsics.put("nr.entryPoint", true);
         }
 
-        // Get the parentId directly from the parent Span or inbound distributed tracing payload, if either exists.
-        if (parentId != null && !parentId.isEmpty()) {
+        final String parentId = getParentId();
+        if (parentId != null) {
             intrinsics.put("parentId", parentId);
-        } else if (context != null) {
-            String contextParentId = context.getParentId();
-            if (contextParentId != null) {
-                intrinsics.put("parentId", contextParentId);
-            }
         }
 
         if (context != null) {
@@ -273,15 +485,15 @@ public class LambdaSpan extends Event implements Span {
 
     @Override
     public Map<String, Object> getUserAttributes() {
-        Map<String, Object> userAtts = new HashMap<>();
-
-        final Map<String, Object> tags = this.getTags();
-        if (tags != null) {
-            userAtts.putAll(tags);
+        Map<String, Object> userAttributes = this.userAttributes;
+        if (userAttributes == null) {
+            userAttributes = getTags();
+            userAttributes.remove("error");
+            if (category != null) {
+                this.userAttributes = userAttributes = Collections.unmodifiableMap(userAttributes);
+            }
         }
-
-        userAtts.remove("error");
-        return userAtts;
+        return userAttributes;
     }
 
     @Override
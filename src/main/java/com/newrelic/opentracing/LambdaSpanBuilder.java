@@ -16,8 +16,6 @@ import io.opentracing.SpanContext;
 import io.opentracing.Tracer;
 import io.opentracing.tag.Tag;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 public class LambdaSpanBuilder implements Tracer.SpanBuilder {
@@ -27,7 +25,9 @@ public class LambdaSpanBuilder implements Tracer.SpanBuilder {
     private SpanContext parent;
 
     private final String operationName;
-    private final Map<String, Object> tags = new HashMap<>();
+    // handed to the span on start; the builder keeps a store sharing the arrays copy-on-write, so neither the span's
+    // later tags nor the builder's later withTag calls reach the other
+    private SpanAttributes tags = new SpanAttributes();
 
     LambdaSpanBuilder(String operationName) {
         this.operationName = operationName;
@@ -81,6 +81,46 @@ public class LambdaSpanBuilder implements Tracer.SpanBuilder {
         return this;
     }
 
+    /**
+     * Same as {@link #withTag(String, Number)}, without boxing the value.
+     */
+    public Tracer.SpanBuilder withTag(String key, int value) {
+        if (key != null) {
+            tags.put(key, value);
+        }
+        return this;
+    }
+
+    /**
+     * Same as {@link #withTag(String, Number)}, without boxing the value.
+     */
+    public Tracer.SpanBuilder withTag(String key, long value) {
+        if (key != null) {
+            tags.put(key, value);
+        }
+        return this;
+    }
+
+    /**
+     * Same as {@link #withTag(String, Number)}, without boxing the value.
+     */
+    public Tracer.SpanBuilder withTag(String key, float value) {
+        if (key != null) {
+            tags.put(key, value);
+        }
+        return this;
+    }
+
+    /**
+     * Same as {@link #withTag(String, Number)}, without boxing the value.
+     */
+    public Tracer.SpanBuilder withTag(String key, double value) {
+        if (key != null) {
+            tags.put(key, value);
+        }
+        return this;
+    }
+
     @Override
     public <T> Tracer.SpanBuilder withTag(Tag<T> tag, T value) {
         if (tag != null) {
@@ -99,6 +139,8 @@ public class LambdaSpanBuilder implements Tracer.SpanBuilder {
 
     @Override
     public Span start() {
+        final SpanAttributes tags = this.tags;
+        this.tags = tags.share();
         long timestamp = System.currentTimeMillis();
         long startTimeInNanos = this.startTimeInNanos == 0 ? System.nanoTime() : this.startTimeInNanos;
 
@@ -127,22 +169,27 @@ public class LambdaSpanBuilder implements Tracer.SpanBuilder {
             final DistributedTracingState distributedTracingState = new DistributedTracingState(payloadContext);
             TransactionState transactionState = new TransactionState();
 
-            newSpan = new LambdaSpan(operationName, timestamp, startTimeInNanos, tags, null, DistributedTraceUtil.generateGuid());
-            LambdaSpanContext spanContext = new LambdaSpanContext(newSpan, distributedTracingState, prioritySamplingState, transactionState, new LambdaCollector());
+            newSpan = new LambdaSpan(operationName, timestamp, startTimeInNanos, tags, null, DistributedTraceUtil.nextId());
+            LambdaSpanContext spanContext = new LambdaSpanContext(newSpan, distributedTracingState, prioritySamplingState, transactionState, LambdaCollector.forRoot(newSpan));
             newSpan.setContext(spanContext);
         } else if (parentSpanContext instanceof LambdaSpanContext) {
             // Our parent context is a normal, local span context
             final LambdaSpanContext lambdaSpanContext = (LambdaSpanContext) parentSpanContext;
             LambdaSpan parentSpan = lambdaSpanContext.getSpan();
-            newSpan = new LambdaSpan(operationName, timestamp, startTimeInNanos, tags, parentSpan, DistributedTraceUtil.generateGuid());
+            if (lambdaSpanContext.isSampled()) {
+                newSpan = new LambdaSpan(operationName, timestamp, startTimeInNanos, tags, parentSpan, DistributedTraceUtil.nextId());
+            } else {
+                // Unsampled trace: the span event won't be reported, and the span is only kept if it has an error
+                newSpan = new UnsampledLambdaSpan(operationName, timestamp, startTimeInNanos, tags, parentSpan, DistributedTraceUtil.nextId());
+            }
             newSpan.setContext(lambdaSpanContext.newContext(newSpan));
         } else {
             // We have no parent context. New root span, new trace.
-            newSpan = new LambdaSpan(operationName, timestamp, startTimeInNanos, tags, null, DistributedTraceUtil.generateGuid());
+            newSpan = new LambdaSpan(operationName, timestamp, startTimeInNanos, tags, null, DistributedTraceUtil.nextId());
             final AdaptiveSampling adaptiveSampling = tracer.adaptiveSampling();
             adaptiveSampling.requestStarted();
             final PrioritySamplingState pss = PrioritySamplingState.setSampledAndGeneratePriority(adaptiveSampling.computeSampled());
-            newSpan.setContext(new LambdaSpanContext(newSpan, new DistributedTracingState(), pss, new TransactionState(), new LambdaCollector()));
+            newSpan.setContext(new LambdaSpanContext(newSpan, new DistributedTracingState(), pss, new TransactionState(), LambdaCollector.forRoot(newSpan)));
         }
 
         return newSpan;
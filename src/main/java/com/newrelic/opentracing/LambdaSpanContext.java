@@ -18,6 +18,7 @@ import java.util.Map;
 public class LambdaSpanContext implements SpanContext {
 
     private final LambdaSpan span;
+    private final LambdaSpan rootSpan; // its tags carry the function's ARN
     private final DistributedTracingState distributedTracingState;
     private final PrioritySamplingState prioritySamplingState;
     private final TransactionState transactionState;
@@ -28,7 +29,17 @@ public class LambdaSpanContext implements SpanContext {
                       PrioritySamplingState prioritySamplingState,
                       TransactionState transactionState,
                       LambdaCollector lambdaCollector) {
+        this(span, span, distributedTracingState, prioritySamplingState, transactionState, lambdaCollector);
+    }
+
+    private LambdaSpanContext(LambdaSpan span,
+                              LambdaSpan rootSpan,
+                              DistributedTracingState distributedTracingState,
+                              PrioritySamplingState prioritySamplingState,
+                              TransactionState transactionState,
+                              LambdaCollector lambdaCollector) {
         this.span = span;
+        this.rootSpan = rootSpan;
         this.distributedTracingState = distributedTracingState;
         this.prioritySamplingState = prioritySamplingState;
         this.transactionState = transactionState;
@@ -54,6 +65,13 @@ public class LambdaSpanContext implements SpanContext {
         return span;
     }
 
+    /**
+     * @return the root span of the trace in this process, which is the span itself for a root span
+     */
+    public LambdaSpan getRootSpan() {
+        return rootSpan;
+    }
+
     public String getParentId() {
         if (distributedTracingState != null) {
             final DistributedTracePayloadImpl inboundPayload = distributedTracingState.getInboundPayload();
@@ -76,6 +94,14 @@ public class LambdaSpanContext implements SpanContext {
         return transactionState.getTransactionId();
     }
 
+    public DistributedTracingState getDistributedTracingState() {
+        return distributedTracingState;
+    }
+
+    public TransactionState getTransactionState() {
+        return transactionState;
+    }
+
     public Map<String, Object> getDistributedTracingAttributes() {
         final DistributedTracing dt = DistributedTracing.getInstance();
         return dt.getDistributedTracingAttributes(distributedTracingState, span.guid(), getPriority());
@@ -93,8 +119,12 @@ public class LambdaSpanContext implements SpanContext {
         transactionState.setTransactionName(transactionType, name);
     }
 
+    public void setTransactionName(String transactionName) {
+        transactionState.setTransactionName(transactionName);
+    }
+
     public LambdaSpanContext newContext(LambdaSpan lambdaSpan) {
-        return new LambdaSpanContext(lambdaSpan, distributedTracingState, prioritySamplingState, transactionState, lambdaCollector);
+        return new LambdaSpanContext(lambdaSpan, rootSpan, distributedTracingState, prioritySamplingState, transactionState, lambdaCollector);
     }
 
     public DistributedTracePayload createDistributedTracingPayload() {
@@ -104,4 +134,12 @@ public class LambdaSpanContext implements SpanContext {
     public void collect() {
         lambdaCollector.spanFinished(this, distributedTracingState, transactionState);
     }
+
+    void asyncSpanStarted() {
+        lambdaCollector.asyncSpanStarted();
+    }
+
+    void asyncSpanFinished() {
+        lambdaCollector.asyncSpanFinished();
+    }
 }
@@ -9,13 +9,11 @@ import com.newrelic.opentracing.dt.DistributedTracePayload;
 import com.newrelic.opentracing.dt.DistributedTracePayloadImpl;
 import com.newrelic.opentracing.logging.Log;
 import io.opentracing.Scope;
-import io.opentracing.ScopeManager;
 import io.opentracing.Span;
 import io.opentracing.SpanContext;
 import io.opentracing.Tracer;
 import io.opentracing.propagation.Format;
 import io.opentracing.propagation.TextMap;
-import io.opentracing.util.ThreadLocalScopeManager;
 
 import java.nio.ByteBuffer;
 import java.text.MessageFormat;
@@ -30,14 +28,14 @@ public class LambdaTracer implements Tracer {
     private static final String NEWRELIC_TRACE_HEADER = "newrelic";
     public static final LambdaTracer INSTANCE = new LambdaTracer();
 
-    private final ScopeManager scopeManager = new ThreadLocalScopeManager();
+    private final LambdaScopeManager scopeManager = new LambdaScopeManager();
     private final AdaptiveSampling adaptiveSampling = new AdaptiveSampling();
 
     private LambdaTracer() {
     }
 
     @Override
-    public ScopeManager scopeManager() {
+    public LambdaScopeManager scopeManager() {
         return scopeManager;
     }
 
@@ -139,7 +137,7 @@ public class LambdaTracer implements Tracer {
         }
 
         if (payload == null) {
-            Log.getInstance().debug(MessageFormat.format("Unable to extract payload from carrier: {0}.", carrier));
+            Log.getInstance().debug(() -> MessageFormat.format("Unable to extract payload from carrier: {0}.", carrier));
             return null;
         }
         return payload;
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Spans that finished after the payload of their invocation was written, held for the next payload the container
+ * writes. The buffer outlives invocations, so it's bounded: spans beyond its capacity are dropped and counted.
+ */
+final class LateSpanBuffer {
+
+    private final int capacity;
+    private final LongAdder late = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    // guarded by this
+    private List<LambdaSpanContext> spans = new ArrayList<>();
+
+    LateSpanBuffer(int capacity) {
+        this.capacity = Math.max(capacity, 0);
+    }
+
+    /**
+     * @return false if the buffer is full, and the span was dropped
+     */
+    boolean add(LambdaSpanContext context) {
+        late.increment();
+        synchronized (this) {
+            if (spans.size() < capacity) {
+                spans.add(context);
+                return true;
+            }
+        }
+        dropped.increment();
+        return false;
+    }
+
+    /**
+     * @return the buffered spans, in the order they finished, leaving the buffer empty
+     */
+    synchronized List<LambdaSpanContext> drain() {
+        if (spans.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<LambdaSpanContext> drained = spans;
+        spans = new ArrayList<>();
+        return drained;
+    }
+
+    /**
+     * @return number of spans that finished late, including the dropped ones
+     */
+    long lateCount() {
+        return late.sum();
+    }
+
+    /**
+     * @return number of late spans dropped because the buffer was full
+     */
+    long droppedCount() {
+        return dropped.sum();
+    }
+
+}
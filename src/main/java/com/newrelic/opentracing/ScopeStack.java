@@ -0,0 +1,145 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing;
+
+import com.newrelic.opentracing.logging.Log;
+import com.newrelic.opentracing.logging.Logger;
+import com.newrelic.opentracing.util.Stacktraces;
+import io.opentracing.Scope;
+import io.opentracing.Span;
+
+import java.util.Arrays;
+
+/**
+ * One thread's active scopes, innermost last. The frames are kept in an array and reused by later activations at the
+ * same depth, so once a thread has reached its deepest nesting, an activation only allocates the small scope handed
+ * back to the caller.
+ *
+ * Each activation stamps its frame with a new generation, and the scope remembers it, so closing a scope that was
+ * already closed is ignored even after another span has been activated at its depth. Closing a scope while scopes
+ * activated after it are still open closes those too, since they could otherwise never become inactive. Closing a
+ * scope from another thread is ignored.
+ *
+ * With debug logging enabled, each activation records where it happened, and scopes closed by an enclosing scope or
+ * still open when the root span finishes are logged with that stack trace.
+ */
+final class ScopeStack {
+
+    private static final int INITIAL_DEPTH = 8;
+
+    private final Thread owner = Thread.currentThread();
+    private Frame[] frames = new Frame[INITIAL_DEPTH];
+    private int depth;
+
+    Scope push(Span span) {
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth << 1);
+        }
+        Frame frame = frames[depth];
+        if (frame == null) {
+            frame = frames[depth] = new Frame(depth);
+        }
+        frame.span = span;
+        frame.activatedAt = Log.getInstance().isDebugEnabled() ? new Throwable("Scope activated") : null;
+        depth++;
+        return new Activation(frame, ++frame.generation);
+    }
+
+    /**
+     * @return the innermost open frame, or null
+     */
+    Frame top() {
+        return depth == 0 ? null : frames[depth - 1];
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    /**
+     * Log the open scopes of spans other than the given root span, which has just finished.
+     */
+    void reportLeaks(Span root) {
+        for (int i = 0; i < depth; i++) {
+            if (frames[i].span != root) {
+                reportLeak(frames[i], "is still open when the root span finished");
+            }
+        }
+    }
+
+    private void close(Frame frame, long generation) {
+        if (Thread.currentThread() != owner) {
+            Log.getInstance().debug(() -> "Ignoring scope of " + nameOf(frame.span) + " closed on another thread "
+                    + Thread.currentThread().getName());
+            return;
+        }
+        if (frame.index >= depth || frame.generation != generation) {
+            // closed already, possibly followed by another activation at the same depth
+            return;
+        }
+        for (int i = depth - 1; i > frame.index; i--) {
+            reportLeak(frames[i], "was closed by an enclosing scope");
+            frames[i].clear();
+        }
+        frame.clear();
+        depth = frame.index;
+    }
+
+    private static void reportLeak(Frame frame, String problem) {
+        final Logger log = Log.getInstance();
+        if (log.isDebugEnabled()) {
+            final StringBuilder message = new StringBuilder("Scope of ").append(nameOf(frame.span)).append(' ').append(problem);
+            if (frame.activatedAt != null) {
+                message.append(", activated at");
+                for (String line : Stacktraces.stackTracesToStrings(frame.activatedAt.getStackTrace())) {
+                    message.append('\n').append(line);
+                }
+            }
+            log.debug(message.toString());
+        }
+    }
+
+    private static String nameOf(Span span) {
+        return span instanceof LambdaSpan ? "span " + ((LambdaSpan) span).getOperationName() : String.valueOf(span);
+    }
+
+    static final class Frame {
+
+        private final int index;
+        private long generation;
+        Span span;
+        private Throwable activatedAt;
+
+        private Frame(int index) {
+            this.index = index;
+        }
+
+        private void clear() {
+            span = null;
+            activatedAt = null;
+        }
+    }
+
+    /**
+     * The scope of one activation. It's only valid while its frame still carries the generation it was created with.
+     */
+    private final class Activation implements Scope {
+
+        private final Frame frame;
+        private final long generation;
+
+        private Activation(Frame frame, long generation) {
+            this.frame = frame;
+            this.generation = generation;
+        }
+
+        @Override
+        public void close() {
+            ScopeStack.this.close(frame, generation);
+        }
+    }
+
+}
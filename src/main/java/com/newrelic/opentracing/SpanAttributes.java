@@ -0,0 +1,384 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing;
+
+import com.newrelic.opentracing.util.SpanCategoryDetection;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compact insertion-ordered attribute store for spans. Spans typically carry a handful of tags, so parallel key and
+ * value arrays with a linear scan take a fraction of the memory of a {@link HashMap} (no table, no entry objects)
+ * and are just as fast at this size. The arrays are only allocated when the first attribute is added.
+ *
+ * Booleans and numbers are kept unboxed in a {@code long} slot next to a type tag, so primitive tags never allocate a
+ * wrapper; {@link #value(int)} boxes them on demand for callers that want objects. The type tag remembers whether an
+ * int, long, float or double was stored, so boxing gives back the same wrapper type that was put in.
+ *
+ * Null keys and values are ignored, so readers never see them. New Relic's attribute limits are enforced as
+ * attributes are added, so oversized values are never retained: attributes beyond {@link #MAX_ATTRIBUTES} are
+ * dropped, and string values are cut to {@link #MAX_VALUE_LENGTH} bytes of UTF-8 ({@link #MAX_DB_STATEMENT_LENGTH} for
+ * {@code db.statement}), at a code point boundary. Process-wide counts of both are kept for reporting. Not thread-safe; spans guard theirs with
+ * their own monitor.
+ */
+public final class SpanAttributes {
+
+    public static final byte TYPE_OBJECT = 0;
+    public static final byte TYPE_BOOLEAN = 1;
+    public static final byte TYPE_INT = 2;
+    public static final byte TYPE_LONG = 3;
+    public static final byte TYPE_FLOAT = 4;
+    public static final byte TYPE_DOUBLE = 5;
+
+    public static final int MAX_ATTRIBUTES = 64;
+    // in UTF-8 bytes, as New Relic measures them
+    public static final int MAX_VALUE_LENGTH = 255;
+    public static final int MAX_DB_STATEMENT_LENGTH = 2000;
+
+    private static final LongAdder DROPPED = new LongAdder();
+    private static final LongAdder TRUNCATED = new LongAdder();
+
+    private static final int INITIAL_CAPACITY = 8;
+    private static final String[] NO_KEYS = {};
+    private static final Object[] NO_VALUES = {};
+    private static final byte[] NO_TYPES = {};
+    private static final long[] NO_BITS = {};
+
+    private String[] keys = NO_KEYS;
+    private byte[] types = NO_TYPES;
+    private Object[] values = NO_VALUES; // TYPE_OBJECT slots
+    private long[] bits = NO_BITS; // primitive slots, allocated with the first primitive
+    private int size;
+    private int categoryBits; // see SpanCategoryDetection
+    // the arrays are also referenced by another store, see share(); copied before the first change
+    private boolean shared;
+
+    public SpanAttributes() {
+    }
+
+    /**
+     * @param attributes initial attributes, may be null
+     */
+    public SpanAttributes(Map<String, ?> attributes) {
+        if (attributes != null) {
+            for (Map.Entry<String, ?> entry : attributes.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Add or replace an attribute. Null keys or values are ignored. Boxed booleans and numbers are stored unboxed.
+     */
+    public void put(String key, Object value) {
+        if (value instanceof Integer) {
+            put(key, ((Integer) value).intValue());
+        } else if (value instanceof Long) {
+            put(key, ((Long) value).longValue());
+        } else if (value instanceof Float) {
+            put(key, ((Float) value).floatValue());
+        } else if (value instanceof Double) {
+            put(key, ((Double) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            put(key, ((Boolean) value).booleanValue());
+        } else if (value != null) {
+            if (value instanceof String) {
+                value = truncate(key, (String) value);
+            }
+            final int index = slot(key);
+            if (index >= 0) {
+                types[index] = TYPE_OBJECT;
+                values[index] = value;
+                categoryBits = SpanCategoryDetection.classify(categoryBits, key, value);
+            }
+        }
+    }
+
+    public void put(String key, boolean value) {
+        putBits(key, TYPE_BOOLEAN, value ? 1 : 0);
+    }
+
+    public void put(String key, int value) {
+        putBits(key, TYPE_INT, value);
+    }
+
+    public void put(String key, long value) {
+        putBits(key, TYPE_LONG, value);
+    }
+
+    public void put(String key, float value) {
+        putBits(key, TYPE_FLOAT, Float.floatToRawIntBits(value));
+    }
+
+    public void put(String key, double value) {
+        putBits(key, TYPE_DOUBLE, Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * @return the value, boxed if it's a primitive, or null
+     */
+    public Object get(String key) {
+        final int index = indexOf(key);
+        return index >= 0 ? value(index) : null;
+    }
+
+    public boolean containsKey(String key) {
+        return indexOf(key) >= 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param index position in insertion order, less than {@link #size()}
+     */
+    public String key(int index) {
+        return keys[index];
+    }
+
+    /**
+     * @param index position in insertion order, less than {@link #size()}
+     * @return one of the {@code TYPE_} constants
+     */
+    public byte type(int index) {
+        return types[index];
+    }
+
+    /**
+     * @param index position in insertion order, less than {@link #size()}
+     * @return the value, boxed if it's a primitive
+     */
+    public Object value(int index) {
+        switch (types[index]) {
+            case TYPE_BOOLEAN:
+                return booleanValue(index);
+            case TYPE_INT:
+                return (int) longValue(index);
+            case TYPE_LONG:
+                return longValue(index);
+            case TYPE_FLOAT:
+                return floatValue(index);
+            case TYPE_DOUBLE:
+                return doubleValue(index);
+            default:
+                return values[index];
+        }
+    }
+
+    /**
+     * @param index position of a {@link #TYPE_BOOLEAN} attribute
+     */
+    public boolean booleanValue(int index) {
+        return bits[index] != 0;
+    }
+
+    /**
+     * @param index position of a {@link #TYPE_INT} or {@link #TYPE_LONG} attribute
+     */
+    public long longValue(int index) {
+        return bits[index];
+    }
+
+    /**
+     * @param index position of a {@link #TYPE_FLOAT} attribute
+     */
+    public float floatValue(int index) {
+        return Float.intBitsToFloat((int) bits[index]);
+    }
+
+    /**
+     * @param index position of a {@link #TYPE_DOUBLE} attribute
+     */
+    public double doubleValue(int index) {
+        return Double.longBitsToDouble(bits[index]);
+    }
+
+    /**
+     * @return the classification bits of the attributes, kept up to date as they're added, see
+     * {@link SpanCategoryDetection#category(int)}
+     */
+    public int categoryBits() {
+        return categoryBits;
+    }
+
+    /**
+     * @return a new map holding a copy of the attributes, primitives boxed
+     */
+    public Map<String, Object> toMap() {
+        final Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            map.put(keys[i], value(i));
+        }
+        return map;
+    }
+
+    /**
+     * Drop spare capacity, for attributes that won't change any more.
+     */
+    void trimToSize() {
+        if (size < keys.length) {
+            if (size == 0) {
+                keys = NO_KEYS;
+                types = NO_TYPES;
+                values = NO_VALUES;
+                bits = NO_BITS;
+            } else {
+                keys = Arrays.copyOf(keys, size);
+                types = Arrays.copyOf(types, size);
+                values = Arrays.copyOf(values, size);
+                if (bits.length > 0) {
+                    bits = Arrays.copyOf(bits, size);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a store with the same attributes. The two share their arrays until either is changed, which copies them
+     * first, so neither ever sees the other's changes.
+     */
+    SpanAttributes share() {
+        final SpanAttributes copy = new SpanAttributes();
+        if (size > 0) {
+            copy.keys = keys;
+            copy.types = types;
+            copy.values = values;
+            copy.bits = bits;
+            copy.size = size;
+            copy.categoryBits = categoryBits;
+            copy.shared = shared = true;
+        }
+        return copy;
+    }
+
+    private void unshare() {
+        keys = Arrays.copyOf(keys, keys.length);
+        types = Arrays.copyOf(types, types.length);
+        values = Arrays.copyOf(values, values.length);
+        if (bits.length > 0) {
+            bits = Arrays.copyOf(bits, bits.length);
+        }
+        shared = false;
+    }
+
+    private void putBits(String key, byte type, long value) {
+        final int index = slot(key);
+        if (index >= 0) {
+            if (bits.length < keys.length) {
+                bits = Arrays.copyOf(bits, keys.length);
+            }
+            types[index] = type;
+            values[index] = null;
+            bits[index] = value;
+            categoryBits = SpanCategoryDetection.classify(categoryBits, key, null);
+        }
+    }
+
+    /**
+     * @return number of attributes dropped, across all spans, because a span already had {@link #MAX_ATTRIBUTES}
+     */
+    public static long droppedCount() {
+        return DROPPED.sum();
+    }
+
+    /**
+     * @return number of string values truncated, across all spans
+     */
+    public static long truncatedCount() {
+        return TRUNCATED.sum();
+    }
+
+    private static String truncate(String key, String value) {
+        // no char takes more than 3 bytes in UTF-8, so short values fit without counting
+        if (value.length() <= MAX_VALUE_LENGTH / 3) {
+            return value;
+        }
+        final int limit = "db.statement".equals(key) ? MAX_DB_STATEMENT_LENGTH : MAX_VALUE_LENGTH;
+        if (value.length() <= limit / 3) {
+            return value;
+        }
+        int bytes = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            final int width;
+            if (c < 0x80) {
+                width = 1;
+            } else if (c < 0x800) {
+                width = 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                width = 4;
+            } else {
+                width = 3;
+            }
+            if (bytes + width > limit) {
+                // cut before the code point that doesn't fit, never inside it
+                TRUNCATED.increment();
+                return value.substring(0, i);
+            }
+            bytes += width;
+            if (width == 4) {
+                i++;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @return index of the key's slot, appending one if needed, or -1 for a null key or when the attribute limit
+     * has been reached
+     */
+    private int slot(String key) {
+        if (key == null) {
+            return -1;
+        }
+        if (shared) {
+            unshare();
+        }
+        final int index = indexOf(key);
+        if (index >= 0) {
+            return index;
+        }
+        if (size >= MAX_ATTRIBUTES) {
+            DROPPED.increment();
+            return -1;
+        }
+        if (size == keys.length) {
+            final int capacity = size == 0 ? INITIAL_CAPACITY : size << 1;
+            keys = Arrays.copyOf(keys, capacity);
+            types = Arrays.copyOf(types, capacity);
+            values = Arrays.copyOf(values, capacity);
+            if (bits.length > 0) {
+                bits = Arrays.copyOf(bits, capacity);
+            }
+        }
+        keys[size] = key;
+        return size++;
+    }
+
+    private int indexOf(String key) {
+        if (key == null) {
+            return -1;
+        }
+        // strings cache their hash, so comparing it first skips most of the equals calls on a miss
+        final int hash = key.hashCode();
+        for (int i = 0; i < size; i++) {
+            final String candidate = keys[i];
+            if (candidate == key || candidate.hashCode() == hash && candidate.equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing;
+
+import com.newrelic.opentracing.util.SpanCategory;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-capacity sample of the finished spans of a trace. Once full, a new span only gets in by evicting the least
+ * valuable one held, so memory stays bounded however many spans a runaway invocation creates. Spans with errors rank
+ * highest, then external and datastore spans, then everything else; within a rank, longer spans are worth more.
+ *
+ * Spans may finish on many threads at once, and are read once, when the root span finishes. Until the sample is
+ * full, adding a span takes no lock: it claims the next slot with an atomic increment, which is also its place in
+ * finish order, and stores itself there. Slots live in fixed-size chunks allocated as they're first claimed. Only
+ * spans finishing beyond the capacity lock, to turn the slots into a binary min-heap ordered by score and evict
+ * from it; spans that can't beat the least valuable one held are turned away before locking.
+ *
+ * Draining the reservoir closes it: spans offered afterwards are refused, so the caller can keep them elsewhere, and
+ * the sample is released, since the reservoir itself may stay reachable from spans that finish late. A span counted
+ * before the drain but still waiting to compete for a place is treated as turned away, since the drained count
+ * already includes it.
+ */
+final class SpanReservoir {
+
+    private static final int ERROR_RANK = 2;
+    private static final int EXTERNAL_RANK = 1;
+    private static final long MAX_DURATION = (1L << 48) - 1;
+    private static final int CHUNK_SHIFT = 6;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    // added to seen when the reservoir is drained, so spans offered afterwards see they're too late
+    private static final long CLOSED = 1L << 62;
+
+    private final int capacity;
+    // number of spans offered; a span's value before incrementing is its slot and finish sequence
+    private final AtomicLong seen = new AtomicLong();
+    // slots of the first spans to finish, allocated with the first span; unsampled traces often never add one
+    private final AtomicReference<AtomicReferenceArray<AtomicReferenceArray<LambdaSpanContext>>> chunks = new AtomicReference<>();
+
+    // Once the slots are full, guarded by this: the sample as a min-heap, in parallel arrays
+    private LambdaSpanContext[] contexts;
+    private long[] scores;
+    private long[] sequences;
+    // score of the least valuable span in the heap, to turn spans away without locking
+    private volatile long threshold = Long.MIN_VALUE;
+    // guarded by this: set once drained, with the counts at that point
+    private boolean drained;
+    private long drainedSeen;
+    private int drainedSize;
+
+    SpanReservoir(int capacity) {
+        this.capacity = Math.max(capacity, 0);
+    }
+
+    /**
+     * Offer a finished span to the sample. Safe to call from any number of threads.
+     *
+     * @return false if the reservoir had been drained before the span was counted, and the span was refused
+     */
+    boolean add(LambdaSpanContext context) {
+        final long sequence = seen.getAndIncrement();
+        if (sequence >= CLOSED) {
+            return false;
+        }
+        if (sequence < capacity) {
+            final int slot = (int) sequence;
+            chunk(slot >>> CHUNK_SHIFT).set(slot & CHUNK_MASK, context);
+            return true;
+        }
+        if (capacity == 0) {
+            return true;
+        }
+        final long score = score(context.getSpan());
+        return score <= threshold || evict(context, score, sequence);
+    }
+
+    private AtomicReferenceArray<LambdaSpanContext> chunk(int index) {
+        AtomicReferenceArray<AtomicReferenceArray<LambdaSpanContext>> chunks = this.chunks.get();
+        if (chunks == null) {
+            chunks = new AtomicReferenceArray<>((int) (((long) capacity + CHUNK_MASK) >>> CHUNK_SHIFT));
+            if (!this.chunks.compareAndSet(null, chunks)) {
+                chunks = this.chunks.get();
+            }
+        }
+        AtomicReferenceArray<LambdaSpanContext> chunk = chunks.get(index);
+        if (chunk == null) {
+            chunk = new AtomicReferenceArray<>(Math.min(CHUNK_SIZE, capacity - (index << CHUNK_SHIFT)));
+            if (!chunks.compareAndSet(index, null, chunk)) {
+                chunk = chunks.get(index);
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Replace the least valuable span held, if the given one is worth more.
+     */
+    private synchronized boolean evict(LambdaSpanContext context, long score, long sequence) {
+        if (drained) {
+            // drained while this span waited for the lock: it's in the drained count, so it was turned away
+            return true;
+        }
+        if (contexts == null) {
+            buildHeap();
+        }
+        if (score > scores[0]) {
+            contexts[0] = context;
+            scores[0] = score;
+            sequences[0] = sequence;
+            siftDown(0);
+            threshold = scores[0];
+        }
+        return true;
+    }
+
+    /**
+     * Move the full slots into the heap. A span that claimed a slot may not have stored itself yet, so wait for it.
+     */
+    private void buildHeap() {
+        contexts = new LambdaSpanContext[capacity];
+        scores = new long[capacity];
+        sequences = new long[capacity];
+        for (int slot = 0; slot < capacity; slot++) {
+            final LambdaSpanContext context = awaitSlot(slot);
+            contexts[slot] = context;
+            scores[slot] = score(context.getSpan());
+            sequences[slot] = slot;
+        }
+        this.chunks.set(null);
+        for (int i = (capacity >>> 1) - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    private LambdaSpanContext awaitSlot(int slot) {
+        final AtomicReferenceArray<AtomicReferenceArray<LambdaSpanContext>> chunks = this.chunks.get();
+        AtomicReferenceArray<LambdaSpanContext> chunk;
+        LambdaSpanContext context;
+        while ((chunk = chunks.get(slot >>> CHUNK_SHIFT)) == null || (context = chunk.get(slot & CHUNK_MASK)) == null) {
+            Thread.yield();
+        }
+        return context;
+    }
+
+    /**
+     * @return number of spans offered, including the evicted ones, up to when the reservoir was drained
+     */
+    synchronized long seen() {
+        return drained ? drainedSeen : seen.get();
+    }
+
+    synchronized int size() {
+        if (drained) {
+            return drainedSize;
+        }
+        return contexts != null ? capacity : (int) Math.min(seen.get(), capacity);
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Append the sampled spans to a list, most recently finished first. Spans still finishing are left out.
+     */
+    synchronized void addTo(List<? super LambdaSpanContext> list) {
+        if (contexts != null) {
+            addHeapTo(list);
+            // back into a heap by score, for the spans still to come
+            for (int i = (capacity >>> 1) - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+            return;
+        }
+        addSlotsTo(list, (int) Math.min(seen.get(), capacity));
+    }
+
+    /**
+     * Sort the heap arrays in place, most recently finished first, and append the spans. This leaves them out of heap
+     * order.
+     */
+    private void addHeapTo(List<? super LambdaSpanContext> list) {
+        // heapsort on the finish sequence: a min-heap moves the earliest finished span to the end each round
+        for (int i = (capacity >>> 1) - 1; i >= 0; i--) {
+            siftDownBySequence(i, capacity);
+        }
+        for (int end = capacity - 1; end > 0; end--) {
+            swap(0, end);
+            siftDownBySequence(0, end);
+        }
+        for (int i = 0; i < capacity; i++) {
+            list.add(contexts[i]);
+        }
+    }
+
+    private void addSlotsTo(List<? super LambdaSpanContext> list, int count) {
+        final AtomicReferenceArray<AtomicReferenceArray<LambdaSpanContext>> chunks = this.chunks.get();
+        if (chunks == null) {
+            return;
+        }
+        // slots are in finish order, so walk them backwards
+        for (int slot = count - 1; slot >= 0; slot--) {
+            final AtomicReferenceArray<LambdaSpanContext> chunk = chunks.get(slot >>> CHUNK_SHIFT);
+            final LambdaSpanContext context = chunk != null ? chunk.get(slot & CHUNK_MASK) : null;
+            if (context != null) {
+                list.add(context);
+            }
+        }
+    }
+
+    /**
+     * Append the sampled spans to a list, most recently finished first, and close the reservoir. Spans that were
+     * still storing themselves are waited for; spans offered from now on are refused.
+     */
+    synchronized void drainTo(List<? super LambdaSpanContext> list) {
+        if (drained) {
+            return;
+        }
+        final long offered = seen.getAndAdd(CLOSED);
+        if (contexts == null && offered > 0 && capacity > 0) {
+            // every span that claimed a slot stores itself, even if it finishes after the increment above
+            for (int slot = 0, claimed = (int) Math.min(offered, capacity); slot < claimed; slot++) {
+                awaitSlot(slot);
+            }
+        }
+        drainedSeen = offered;
+        drainedSize = contexts != null ? capacity : (int) Math.min(offered, capacity);
+        if (contexts != null) {
+            // the heap is released below, so it needn't be restored
+            addHeapTo(list);
+        } else {
+            addSlotsTo(list, drainedSize);
+        }
+        drained = true;
+        contexts = null;
+        scores = null;
+        sequences = null;
+        chunks.set(null);
+    }
+
+    static long score(LambdaSpan span) {
+        final int rank;
+        if (span.getLog("error.object") != null || Boolean.TRUE.equals(span.getTag("error"))) {
+            rank = ERROR_RANK;
+        } else if (span.getCategory() != SpanCategory.GENERIC) {
+            rank = EXTERNAL_RANK;
+        } else {
+            rank = 0;
+        }
+        return ((long) rank << 48) | Math.min(Math.max(span.getDurationInMicros(), 0), MAX_DURATION);
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            final int left = (index << 1) + 1;
+            if (left >= capacity) {
+                return;
+            }
+            final int right = left + 1;
+            final int smallest = right < capacity && scores[right] < scores[left] ? right : left;
+            if (scores[index] <= scores[smallest]) {
+                return;
+            }
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private void siftDownBySequence(int index, int size) {
+        while (true) {
+            final int left = (index << 1) + 1;
+            if (left >= size) {
+                return;
+            }
+            final int right = left + 1;
+            final int smallest = right < size && sequences[right] < sequences[left] ? right : left;
+            if (sequences[index] <= sequences[smallest]) {
+                return;
+            }
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        final LambdaSpanContext context = contexts[a];
+        contexts[a] = contexts[b];
+        contexts[b] = context;
+        final long score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+        final long sequence = sequences[a];
+        sequences[a] = sequences[b];
+        sequences[b] = sequence;
+    }
+
+}
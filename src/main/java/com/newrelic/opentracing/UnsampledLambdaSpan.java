@@ -0,0 +1,66 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing;
+
+import io.opentracing.Span;
+import io.opentracing.tag.Tag;
+
+/**
+ * Child span of an unsampled trace. Its span event is never reported, so after it starts it only records the
+ * {@code error} tag, which marks the span as failed: tags given to the builder are kept, other tags set on the span are
+ * ignored and {@link #getTag(String)} returns null for them. Its identity, timing and logs are kept too, which is what
+ * distributed tracing headers and error events need. When it finishes, the collector keeps it only if it carries an
+ * error.
+ */
+final class UnsampledLambdaSpan extends LambdaSpan {
+
+    private static final String ERROR = "error";
+
+    UnsampledLambdaSpan(String operationName, long timestamp, long startTimeInNanos, SpanAttributes tags, LambdaSpan parentSpan, long id) {
+        super(operationName, timestamp, startTimeInNanos, tags, parentSpan, id);
+    }
+
+    @Override
+    public Span setTag(String key, String value) {
+        return ERROR.equals(key) ? super.setTag(key, value) : this;
+    }
+
+    @Override
+    public Span setTag(String key, boolean value) {
+        return ERROR.equals(key) ? super.setTag(key, value) : this;
+    }
+
+    @Override
+    public Span setTag(String key, Number value) {
+        return ERROR.equals(key) ? super.setTag(key, value) : this;
+    }
+
+    @Override
+    public Span setTag(String key, int value) {
+        return ERROR.equals(key) ? super.setTag(key, value) : this;
+    }
+
+    @Override
+    public Span setTag(String key, long value) {
+        return ERROR.equals(key) ? super.setTag(key, value) : this;
+    }
+
+    @Override
+    public Span setTag(String key, float value) {
+        return ERROR.equals(key) ? super.setTag(key, value) : this;
+    }
+
+    @Override
+    public Span setTag(String key, double value) {
+        return ERROR.equals(key) ? super.setTag(key, value) : this;
+    }
+
+    @Override
+    public <T> Span setTag(Tag<T> tag, T value) {
+        return tag != null && ERROR.equals(tag.getKey()) ? super.setTag(tag, value) : this;
+    }
+
+}
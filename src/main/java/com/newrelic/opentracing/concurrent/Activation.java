@@ -0,0 +1,41 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.concurrent;
+
+import com.newrelic.opentracing.LambdaTracer;
+import io.opentracing.Scope;
+import io.opentracing.ScopeManager;
+import io.opentracing.Span;
+
+/**
+ * Restores a captured span on the thread that runs the work.
+ */
+final class Activation {
+
+    private Activation() {
+    }
+
+    /**
+     * @return the span the caller has active, to be restored later, or null
+     */
+    static Span capture() {
+        return LambdaTracer.INSTANCE.activeSpan();
+    }
+
+    /**
+     * @param span span captured where the work was handed off, may be null
+     * @return the scope to close when the work is done, or null when there's nothing to restore because no span was
+     * captured or it's already active (the work runs on the thread that handed it off); try-with-resources skips null
+     */
+    static Scope activate(Span span) {
+        if (span == null) {
+            return null;
+        }
+        final ScopeManager scopeManager = LambdaTracer.INSTANCE.scopeManager();
+        return scopeManager.activeSpan() == span ? null : scopeManager.activate(span);
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.concurrent;
+
+import io.opentracing.Scope;
+import io.opentracing.Span;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Calls a task with the span that was active when it was created, see {@link TracedRunnable}.
+ */
+public final class TracedCallable<V> implements Callable<V> {
+
+    private final Callable<V> delegate;
+    private final Span span;
+
+    /**
+     * @param delegate the task, called with the caller's active span
+     */
+    public TracedCallable(Callable<V> delegate) {
+        this(delegate, Activation.capture());
+    }
+
+    /**
+     * @param delegate the task
+     * @param span span to make active while the task runs, or null for none
+     */
+    public TracedCallable(Callable<V> delegate, Span span) {
+        this.delegate = delegate;
+        this.span = span;
+    }
+
+    @Override
+    public V call() throws Exception {
+        try (Scope ignored = Activation.activate(span)) {
+            return delegate.call();
+        }
+    }
+
+}
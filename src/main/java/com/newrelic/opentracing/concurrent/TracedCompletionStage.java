@@ -0,0 +1,307 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.concurrent;
+
+import com.newrelic.opentracing.LambdaSpan;
+import io.opentracing.Scope;
+import io.opentracing.Span;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Completion stage whose continuations run with the span that was active when it was created, on whichever thread
+ * completes the stage, and whose dependent stages do the same. Continuations added through
+ * {@link #toCompletableFuture()} run without it.
+ */
+public final class TracedCompletionStage<T> implements CompletionStage<T> {
+
+    private final CompletionStage<T> delegate;
+    private final Span span;
+
+    private TracedCompletionStage(CompletionStage<T> delegate, Span span) {
+        this.delegate = delegate;
+        this.span = span;
+    }
+
+    /**
+     * @param stage stage whose continuations should run with the caller's active span
+     */
+    public static <T> TracedCompletionStage<T> of(CompletionStage<T> stage) {
+        return of(stage, Activation.capture());
+    }
+
+    /**
+     * @param stage stage whose continuations should run with the given span
+     * @param span span to make active while continuations run, or null for none
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> TracedCompletionStage<T> of(CompletionStage<T> stage, Span span) {
+        if (stage instanceof TracedCompletionStage && ((TracedCompletionStage<T>) stage).span == span) {
+            return (TracedCompletionStage<T>) stage;
+        }
+        return new TracedCompletionStage<>(stage, span);
+    }
+
+    /**
+     * Tie a span's lifetime to an asynchronous operation: the span finishes when the stage completes, with the error
+     * logged if it fails, and the root span waits for it, see {@link LambdaSpan#finishOnCompletion}. Continuations
+     * run once the span has finished, with the caller's active span, typically the parent of the one timing the
+     * operation.
+     *
+     * @param span span timing the operation
+     * @param stage the operation
+     */
+    public static <T> TracedCompletionStage<T> finishing(Span span, CompletionStage<T> stage) {
+        if (span instanceof LambdaSpan) {
+            return of(((LambdaSpan) span).finishOnCompletion(stage));
+        }
+        return of(stage.whenComplete((value, error) -> span.finish()));
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenApply(Function<? super T, ? extends U> fn) {
+        return traced(delegate.thenApply(wrap(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenApplyAsync(Function<? super T, ? extends U> fn) {
+        return traced(delegate.thenApplyAsync(wrap(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenApplyAsync(Function<? super T, ? extends U> fn, Executor executor) {
+        return traced(delegate.thenApplyAsync(wrap(fn), executor));
+    }
+
+    @Override
+    public CompletionStage<Void> thenAccept(Consumer<? super T> action) {
+        return traced(delegate.thenAccept(wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> thenAcceptAsync(Consumer<? super T> action) {
+        return traced(delegate.thenAcceptAsync(wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> thenAcceptAsync(Consumer<? super T> action, Executor executor) {
+        return traced(delegate.thenAcceptAsync(wrap(action), executor));
+    }
+
+    @Override
+    public CompletionStage<Void> thenRun(Runnable action) {
+        return traced(delegate.thenRun(wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> thenRunAsync(Runnable action) {
+        return traced(delegate.thenRunAsync(wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> thenRunAsync(Runnable action, Executor executor) {
+        return traced(delegate.thenRunAsync(wrap(action), executor));
+    }
+
+    @Override
+    public <U, V> CompletionStage<V> thenCombine(CompletionStage<? extends U> other, BiFunction<? super T, ? super U, ? extends V> fn) {
+        return traced(delegate.thenCombine(other, wrap(fn)));
+    }
+
+    @Override
+    public <U, V> CompletionStage<V> thenCombineAsync(CompletionStage<? extends U> other,
+                                                      BiFunction<? super T, ? super U, ? extends V> fn) {
+        return traced(delegate.thenCombineAsync(other, wrap(fn)));
+    }
+
+    @Override
+    public <U, V> CompletionStage<V> thenCombineAsync(CompletionStage<? extends U> other,
+                                                      BiFunction<? super T, ? super U, ? extends V> fn, Executor executor) {
+        return traced(delegate.thenCombineAsync(other, wrap(fn), executor));
+    }
+
+    @Override
+    public <U> CompletionStage<Void> thenAcceptBoth(CompletionStage<? extends U> other, BiConsumer<? super T, ? super U> action) {
+        return traced(delegate.thenAcceptBoth(other, wrap(action)));
+    }
+
+    @Override
+    public <U> CompletionStage<Void> thenAcceptBothAsync(CompletionStage<? extends U> other, BiConsumer<? super T, ? super U> action) {
+        return traced(delegate.thenAcceptBothAsync(other, wrap(action)));
+    }
+
+    @Override
+    public <U> CompletionStage<Void> thenAcceptBothAsync(CompletionStage<? extends U> other, BiConsumer<? super T, ? super U> action,
+                                                         Executor executor) {
+        return traced(delegate.thenAcceptBothAsync(other, wrap(action), executor));
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterBoth(CompletionStage<?> other, Runnable action) {
+        return traced(delegate.runAfterBoth(other, wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterBothAsync(CompletionStage<?> other, Runnable action) {
+        return traced(delegate.runAfterBothAsync(other, wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterBothAsync(CompletionStage<?> other, Runnable action, Executor executor) {
+        return traced(delegate.runAfterBothAsync(other, wrap(action), executor));
+    }
+
+    @Override
+    public <U> CompletionStage<U> applyToEither(CompletionStage<? extends T> other, Function<? super T, U> fn) {
+        return traced(delegate.applyToEither(other, wrap(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> applyToEitherAsync(CompletionStage<? extends T> other, Function<? super T, U> fn) {
+        return traced(delegate.applyToEitherAsync(other, wrap(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> applyToEitherAsync(CompletionStage<? extends T> other, Function<? super T, U> fn, Executor executor) {
+        return traced(delegate.applyToEitherAsync(other, wrap(fn), executor));
+    }
+
+    @Override
+    public CompletionStage<Void> acceptEither(CompletionStage<? extends T> other, Consumer<? super T> action) {
+        return traced(delegate.acceptEither(other, wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> acceptEitherAsync(CompletionStage<? extends T> other, Consumer<? super T> action) {
+        return traced(delegate.acceptEitherAsync(other, wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> acceptEitherAsync(CompletionStage<? extends T> other, Consumer<? super T> action, Executor executor) {
+        return traced(delegate.acceptEitherAsync(other, wrap(action), executor));
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterEither(CompletionStage<?> other, Runnable action) {
+        return traced(delegate.runAfterEither(other, wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterEitherAsync(CompletionStage<?> other, Runnable action) {
+        return traced(delegate.runAfterEitherAsync(other, wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<Void> runAfterEitherAsync(CompletionStage<?> other, Runnable action, Executor executor) {
+        return traced(delegate.runAfterEitherAsync(other, wrap(action), executor));
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenCompose(Function<? super T, ? extends CompletionStage<U>> fn) {
+        return traced(delegate.thenCompose(wrap(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenComposeAsync(Function<? super T, ? extends CompletionStage<U>> fn) {
+        return traced(delegate.thenComposeAsync(wrap(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> thenComposeAsync(Function<? super T, ? extends CompletionStage<U>> fn, Executor executor) {
+        return traced(delegate.thenComposeAsync(wrap(fn), executor));
+    }
+
+    @Override
+    public CompletionStage<T> exceptionally(Function<Throwable, ? extends T> fn) {
+        return traced(delegate.exceptionally(wrap(fn)));
+    }
+
+    @Override
+    public CompletionStage<T> whenComplete(BiConsumer<? super T, ? super Throwable> action) {
+        return traced(delegate.whenComplete(wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<T> whenCompleteAsync(BiConsumer<? super T, ? super Throwable> action) {
+        return traced(delegate.whenCompleteAsync(wrap(action)));
+    }
+
+    @Override
+    public CompletionStage<T> whenCompleteAsync(BiConsumer<? super T, ? super Throwable> action, Executor executor) {
+        return traced(delegate.whenCompleteAsync(wrap(action), executor));
+    }
+
+    @Override
+    public <U> CompletionStage<U> handle(BiFunction<? super T, Throwable, ? extends U> fn) {
+        return traced(delegate.handle(wrap(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> handleAsync(BiFunction<? super T, Throwable, ? extends U> fn) {
+        return traced(delegate.handleAsync(wrap(fn)));
+    }
+
+    @Override
+    public <U> CompletionStage<U> handleAsync(BiFunction<? super T, Throwable, ? extends U> fn, Executor executor) {
+        return traced(delegate.handleAsync(wrap(fn), executor));
+    }
+
+    @Override
+    public CompletableFuture<T> toCompletableFuture() {
+        return delegate.toCompletableFuture();
+    }
+
+    private <U> CompletionStage<U> traced(CompletionStage<U> stage) {
+        return new TracedCompletionStage<>(stage, span);
+    }
+
+    private <A, R> Function<A, R> wrap(Function<? super A, ? extends R> fn) {
+        return value -> {
+            try (Scope ignored = Activation.activate(span)) {
+                return fn.apply(value);
+            }
+        };
+    }
+
+    private <A, B, R> BiFunction<A, B, R> wrap(BiFunction<? super A, ? super B, ? extends R> fn) {
+        return (a, b) -> {
+            try (Scope ignored = Activation.activate(span)) {
+                return fn.apply(a, b);
+            }
+        };
+    }
+
+    private <A> Consumer<A> wrap(Consumer<? super A> action) {
+        return value -> {
+            try (Scope ignored = Activation.activate(span)) {
+                action.accept(value);
+            }
+        };
+    }
+
+    private <A, B> BiConsumer<A, B> wrap(BiConsumer<? super A, ? super B> action) {
+        return (a, b) -> {
+            try (Scope ignored = Activation.activate(span)) {
+                action.accept(a, b);
+            }
+        };
+    }
+
+    private Runnable wrap(Runnable action) {
+        return () -> {
+            try (Scope ignored = Activation.activate(span)) {
+                action.run();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.concurrent;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Executor that runs each task with the span that was active when the task was handed to it, so work spread across
+ * threads stays in one trace. Pass it to {@code CompletableFuture#supplyAsync} and friends to trace their stages.
+ */
+public class TracedExecutor implements Executor {
+
+    private final Executor delegate;
+
+    public TracedExecutor(Executor delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        delegate.execute(wrap(command));
+    }
+
+    static Runnable wrap(Runnable task) {
+        return task instanceof TracedRunnable ? task : new TracedRunnable(task);
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.concurrent;
+
+import io.opentracing.Scope;
+import io.opentracing.Span;
+
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs a fork/join task with the span that was active when it was created, for {@code ForkJoinPool#invoke},
+ * {@code #submit} and {@code #execute}. Subtasks the task forks run without it unless they're wrapped too.
+ */
+public final class TracedForkJoinTask<V> extends ForkJoinTask<V> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ForkJoinTask<V> delegate;
+    private final transient Span span;
+    private V result;
+
+    /**
+     * @param delegate the task, run with the caller's active span
+     */
+    public TracedForkJoinTask(ForkJoinTask<V> delegate) {
+        this(delegate, Activation.capture());
+    }
+
+    /**
+     * @param delegate the task
+     * @param span span to make active while the task runs, or null for none
+     */
+    public TracedForkJoinTask(ForkJoinTask<V> delegate, Span span) {
+        this.delegate = delegate;
+        this.span = span;
+    }
+
+    @Override
+    public V getRawResult() {
+        return result;
+    }
+
+    @Override
+    protected void setRawResult(V value) {
+        result = value;
+    }
+
+    @Override
+    protected boolean exec() {
+        try (Scope ignored = Activation.activate(span)) {
+            result = delegate.invoke();
+        }
+        return true;
+    }
+
+}
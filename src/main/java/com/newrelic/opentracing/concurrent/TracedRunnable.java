@@ -0,0 +1,43 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.concurrent;
+
+import io.opentracing.Scope;
+import io.opentracing.Span;
+
+/**
+ * Runs a task with the span that was active when it was created, so spans it starts join the same trace, and are
+ * reported by the same invocation, instead of starting new traces of their own.
+ */
+public final class TracedRunnable implements Runnable {
+
+    private final Runnable delegate;
+    private final Span span;
+
+    /**
+     * @param delegate the task, run with the caller's active span
+     */
+    public TracedRunnable(Runnable delegate) {
+        this(delegate, Activation.capture());
+    }
+
+    /**
+     * @param delegate the task
+     * @param span span to make active while the task runs, or null for none
+     */
+    public TracedRunnable(Runnable delegate, Span span) {
+        this.delegate = delegate;
+        this.span = span;
+    }
+
+    @Override
+    public void run() {
+        try (Scope ignored = Activation.activate(span)) {
+            delegate.run();
+        }
+    }
+
+}
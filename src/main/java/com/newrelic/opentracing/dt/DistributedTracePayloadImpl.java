@@ -141,7 +141,7 @@ public class DistributedTracePayloadImpl implements DistributedTracePayload {
             final Long majorVersion = (Long) version.get(0);
             int majorSupportedVersion = distributedTraceService.getMajorSupportedCatVersion();
             if (majorVersion > majorSupportedVersion) {
-                Log.getInstance().debug(MessageFormat.format("Incoming distributed trace payload major version: {0} is newer than supported agent"
+                Log.getInstance().debug(() -> MessageFormat.format("Incoming distributed trace payload major version: {0} is newer than supported agent"
                         + " version: {1}. Ignoring payload.", majorVersion, majorSupportedVersion));
                 return null;
             }
@@ -156,7 +156,7 @@ public class DistributedTracePayloadImpl implements DistributedTracePayload {
             String trustKey = distributedTraceService.getTrustKey();
 
             if (payloadAccountId == null) {
-                Log.getInstance().debug(MessageFormat.format("Invalid payload {0}. Payload missing accountId.", data));
+                Log.getInstance().debug(() -> MessageFormat.format("Invalid payload {0}. Payload missing accountId.", data));
                 return null;
             }
 
@@ -171,14 +171,15 @@ public class DistributedTracePayloadImpl implements DistributedTracePayload {
 
             boolean isTrustedAccountKey = trustKey.equals(payloadTrustedAccountKey);
             if (!isTrustedAccountKey) {
-                Log.getInstance().debug(MessageFormat.format("Incoming distributed trace payload trustKey: {0} does not match trusted account key: {1}." +
-                        " Ignoring payload.", payloadTrustedAccountKey, trustKey));
+                final String untrustedAccountKey = payloadTrustedAccountKey;
+                Log.getInstance().debug(() -> MessageFormat.format("Incoming distributed trace payload trustKey: {0} does not match trusted account key: {1}." +
+                        " Ignoring payload.", untrustedAccountKey, trustKey));
                 return null;
             }
 
             long timestamp = (Long) data.get(TIMESTAMP);
             if (timestamp <= 0) {
-                Log.getInstance().debug(MessageFormat.format("Invalid payload {0}. Payload missing keys.", data));
+                Log.getInstance().debug(() -> MessageFormat.format("Invalid payload {0}. Payload missing keys.", data));
                 return null;
             }
 
@@ -209,11 +210,11 @@ public class DistributedTracePayloadImpl implements DistributedTracePayload {
             DistributedTracePayloadImpl distributedTracePayload = new DistributedTracePayloadImpl(timestamp, parentType,
                     payloadAccountId, payloadTrustedAccountKey, applicationId, guid, traceId, txnId, priority, sampled);
 
-            Log.getInstance().debug("Parsed inbound payload: " + distributedTracePayload);
+            Log.getInstance().debug(() -> "Parsed inbound payload: " + distributedTracePayload);
             return distributedTracePayload;
         } catch (Exception e) {
             Log.getInstance().debug("Failed to parse distributed trace payload.");
-            Log.getInstance().debug(e.getMessage());
+            Log.getInstance().debug(e::getMessage);
             return null;
         }
     }
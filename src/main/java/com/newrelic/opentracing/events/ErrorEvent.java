@@ -34,6 +34,34 @@ public class ErrorEvent extends Event {
         this.distributedTraceIntrinsics = distributedTraceIntrinsics;
     }
 
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public float getTransactionDuration() {
+        return transactionDuration;
+    }
+
+    public String getErrorClass() {
+        return errorClass;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public String getTransactionName() {
+        return transactionName;
+    }
+
+    public String getTransactionGuid() {
+        return transactionGuid;
+    }
+
+    public Map<String, Object> getDistributedTraceIntrinsics() {
+        return distributedTraceIntrinsics;
+    }
+
     @Override
     public Map<String, Object> getUserAttributes() {
         return userAttributes;
@@ -7,6 +7,7 @@ package com.newrelic.opentracing.events;
 
 import com.newrelic.opentracing.LambdaSpan;
 import com.newrelic.opentracing.LambdaSpanContext;
+import com.newrelic.opentracing.SpanAttributes;
 import com.newrelic.opentracing.dt.DistributedTracePayloadImpl;
 import com.newrelic.opentracing.dt.DistributedTracing;
 import com.newrelic.opentracing.state.DistributedTracingState;
@@ -61,11 +62,12 @@ public class TransactionEvent extends Event {
             }
         }
 
-        for (Map.Entry<String, Object> tag : span.getTags().entrySet()) {
-            if (AGENT_ATTRIBUTE_KEYS.contains(tag.getKey())) {
-                agentAttributes.put(tag.getKey(), tag.getValue());
+        final SpanAttributes tags = span.getAttributes();
+        for (int i = 0; i < tags.size(); i++) {
+            if (AGENT_ATTRIBUTE_KEYS.contains(tags.key(i))) {
+                agentAttributes.put(tags.key(i), tags.value(i));
             } else {
-                userAttributes.put(tag.getKey(), tag.getValue());
+                userAttributes.put(tags.key(i), tags.value(i));
             }
         }
 
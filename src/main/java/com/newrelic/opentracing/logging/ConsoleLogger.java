@@ -5,6 +5,7 @@
 
 package com.newrelic.opentracing.logging;
 
+import java.io.PrintStream;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -19,10 +20,24 @@ public class ConsoleLogger implements Logger {
         System.out.println(message);
     }
 
+    @Override
+    public void out(byte[] message, int offset, int length) {
+        final PrintStream out = System.out;
+        synchronized (out) {
+            out.write(message, offset, length);
+            out.println();
+        }
+    }
+
     @Override
     public void debug(String message) {
     }
 
+    @Override
+    public boolean isDebugEnabled() {
+        return false;
+    }
+
     @Override
     public List<String> getLogs() {
         return new LinkedList<>();
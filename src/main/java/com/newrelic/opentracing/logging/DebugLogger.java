@@ -5,6 +5,7 @@
 
 package com.newrelic.opentracing.logging;
 
+import java.io.PrintStream;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -19,6 +20,15 @@ public class DebugLogger implements Logger {
         System.out.println(message);
     }
 
+    @Override
+    public void out(byte[] message, int offset, int length) {
+        final PrintStream out = System.out;
+        synchronized (out) {
+            out.write(message, offset, length);
+            out.println();
+        }
+    }
+
     @Override
     public void debug(String message) {
         System.out.println("nr_debug: " + message);
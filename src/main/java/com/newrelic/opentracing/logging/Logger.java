@@ -6,6 +6,9 @@
 package com.newrelic.opentracing.logging;
 
 import java.util.List;
+import java.util.function.Supplier;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 public interface Logger {
 
@@ -16,6 +19,18 @@ public interface Logger {
      */
     void out(String message);
 
+    /**
+     * Writes UTF-8 encoded payload data to standard out, followed by a line separator. Implementations that write to
+     * a stream should override this to avoid decoding the payload into a String first.
+     *
+     * @param message buffer holding the UTF-8 encoded message
+     * @param offset offset of the message in the buffer
+     * @param length length of the message in bytes
+     */
+    default void out(byte[] message, int offset, int length) {
+        out(new String(message, offset, length, UTF_8));
+    }
+
     /**
      * Writes to standard out. Can be used to also write debug messages for trouble-shooting.
      *
@@ -23,6 +38,27 @@ public interface Logger {
      */
     void debug(String message);
 
+    /**
+     * Writes a lazily built debug message. The supplier is only called if debug logging is enabled, so call sites
+     * that build their message pay nothing when it would be discarded.
+     *
+     * @param message supplier of the String to be logged
+     */
+    default void debug(Supplier<String> message) {
+        if (isDebugEnabled()) {
+            debug(message.get());
+        }
+    }
+
+    /**
+     * Whether debug messages are kept. Check this before doing work whose only purpose is a debug message.
+     *
+     * @return true if {@link #debug(String)} logs anything
+     */
+    default boolean isDebugEnabled() {
+        return true;
+    }
+
     /**
      * Return a list of all logged messages. In most implementations this will be a no-op.
      *
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.payload;
+
+import java.io.OutputStream;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Reusable streaming base64 encoder (RFC 4648 alphabet with padding, no line breaks) that appends to a
+ * {@link PayloadBuffer}. Unlike {@link java.util.Base64.Encoder#wrap(OutputStream)} it keeps its state and scratch
+ * space across payloads, and padding is written by {@link #finish()} rather than by closing the stream.
+ */
+final class Base64OutputStream extends OutputStream {
+
+    private static final byte[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(US_ASCII);
+    private static final int CHUNK_SIZE = 4 * 1024;
+
+    private final PayloadBuffer target;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private final byte[] pending = new byte[2];
+    private int pendingCount;
+    private long bytesWritten;
+
+    Base64OutputStream(PayloadBuffer target) {
+        this.target = target;
+    }
+
+    /**
+     * Clear any state left over from a previous payload.
+     */
+    void start() {
+        pendingCount = 0;
+        bytesWritten = 0;
+    }
+
+    @Override
+    public void write(int b) {
+        if (pendingCount < 2) {
+            pending[pendingCount++] = (byte) b;
+            return;
+        }
+        final int length = encode(pending[0], pending[1], (byte) b, chunk, 0);
+        pendingCount = 0;
+        emit(length);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        final int end = offset + length;
+        // complete a partial triple left over from the previous write
+        while (pendingCount > 0 && offset < end) {
+            write(bytes[offset++]);
+        }
+        int chunkCount = 0;
+        while (end - offset >= 3) {
+            chunkCount += encode(bytes[offset], bytes[offset + 1], bytes[offset + 2], chunk, chunkCount);
+            offset += 3;
+            if (chunkCount == CHUNK_SIZE) {
+                emit(chunkCount);
+                chunkCount = 0;
+            }
+        }
+        emit(chunkCount);
+        while (offset < end) {
+            pending[pendingCount++] = bytes[offset++];
+        }
+    }
+
+    /**
+     * Encode the final partial triple, if any, with padding.
+     */
+    void finish() {
+        if (pendingCount == 0) {
+            return;
+        }
+        final int b0 = pending[0] & 0xff;
+        final int b1 = pendingCount == 2 ? pending[1] & 0xff : 0;
+        chunk[0] = ALPHABET[b0 >> 2];
+        chunk[1] = ALPHABET[((b0 << 4) | (b1 >> 4)) & 0x3f];
+        chunk[2] = pendingCount == 2 ? ALPHABET[(b1 << 2) & 0x3f] : (byte) '=';
+        chunk[3] = '=';
+        pendingCount = 0;
+        emit(4);
+    }
+
+    /**
+     * @return number of base64 characters emitted since {@link #start()}
+     */
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private void emit(int length) {
+        if (length > 0) {
+            target.write(chunk, 0, length);
+            bytesWritten += length;
+        }
+    }
+
+    private static int encode(byte b0, byte b1, byte b2, byte[] dst, int offset) {
+        final int bits = (b0 & 0xff) << 16 | (b1 & 0xff) << 8 | (b2 & 0xff);
+        dst[offset] = ALPHABET[(bits >>> 18) & 0x3f];
+        dst[offset + 1] = ALPHABET[(bits >>> 12) & 0x3f];
+        dst[offset + 2] = ALPHABET[(bits >>> 6) & 0x3f];
+        dst[offset + 3] = ALPHABET[bits & 0x3f];
+        return 4;
+    }
+
+}
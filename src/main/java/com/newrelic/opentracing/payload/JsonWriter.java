@@ -0,0 +1,485 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.payload;
+
+import com.newrelic.opentracing.util.DistributedTraceUtil;
+import org.json.simple.JSONAware;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Streaming JSON writer that renders UTF-8 straight into a reusable byte buffer. Without a sink the buffer grows to
+ * hold the whole document; with a sink (see {@link #reset(OutputStream)}) the buffer is drained into it whenever it
+ * fills, so the document is never held in memory as a whole.
+ *
+ * Scalars are formatted and escaped exactly like json-simple's {@code JSONValue}, so anything written through this
+ * class is interchangeable with the json-simple rendering of the same values. Separators are tracked per nesting
+ * level, so callers only describe structure.
+ */
+public final class JsonWriter {
+
+    private static final int DEFAULT_CAPACITY = 8 * 1024;
+    private static final int MAX_DEPTH = 32;
+
+    private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+    private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+    private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+    private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+    private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9 };
+    private static final long[] LONG_POWERS_OF_TEN = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L };
+
+    private byte[] buf;
+    private int count;
+    private OutputStream sink;
+
+    // hasValue[depth] is true once the container at that depth holds at least one element
+    private final boolean[] hasValue = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean afterName;
+
+    public JsonWriter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public JsonWriter(int initialCapacity) {
+        buf = new byte[Math.max(initialCapacity, 64)];
+    }
+
+    public JsonWriter beginObject() {
+        beforeValue();
+        write('{');
+        push();
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        pop();
+        write('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        beforeValue();
+        write('[');
+        push();
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        pop();
+        write(']');
+        return this;
+    }
+
+    public JsonWriter name(String name) {
+        beforeValue();
+        writeQuoted(name);
+        write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter nullValue() {
+        beforeValue();
+        write(NULL);
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        beforeValue();
+        if (value == null) {
+            write(NULL);
+        } else {
+            writeQuoted(value);
+        }
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        beforeValue();
+        write(value ? TRUE : FALSE);
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        beforeValue();
+        writeLong(value);
+        return this;
+    }
+
+    public JsonWriter value(float value) {
+        beforeValue();
+        writeFloat(value);
+        return this;
+    }
+
+    public JsonWriter value(double value) {
+        beforeValue();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            write(NULL);
+        } else {
+            writeAscii(Double.toString(value));
+        }
+        return this;
+    }
+
+    /**
+     * Write an id as its quoted guid, the same text as {@code value(DistributedTraceUtil.toGuid(id))}, without creating
+     * the string.
+     */
+    public JsonWriter guidValue(long id) {
+        beforeValue();
+        ensureCapacity(DistributedTraceUtil.GUID_LENGTH + 2);
+        buf[count++] = '"';
+        for (int i = 0; i < DistributedTraceUtil.GUID_LENGTH; i++) {
+            buf[count++] = (byte) DistributedTraceUtil.guidChar(id, i);
+        }
+        buf[count++] = '"';
+        return this;
+    }
+
+    /**
+     * Write an arbitrary value following the json-simple {@code JSONValue.toJSONString} rules.
+     *
+     * @param value value to write
+     * @return this writer
+     */
+    public JsonWriter value(Object value) {
+        if (value == null) {
+            return nullValue();
+        } else if (value instanceof String) {
+            return value((String) value);
+        } else if (value instanceof Float) {
+            return value(((Float) value).floatValue());
+        } else if (value instanceof Double) {
+            return value(((Double) value).doubleValue());
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return value(((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            return value(((Boolean) value).booleanValue());
+        } else if (value instanceof JSONAware) {
+            beforeValue();
+            writeUtf8(((JSONAware) value).toJSONString());
+            return this;
+        } else if (value instanceof Map) {
+            beginObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                name(String.valueOf(entry.getKey()));
+                value(entry.getValue());
+            }
+            return endObject();
+        } else if (value instanceof List) {
+            beginArray();
+            for (Object element : (List<?>) value) {
+                value(element);
+            }
+            return endArray();
+        }
+        // json-simple writes any other Number or Object using its unquoted toString()
+        beforeValue();
+        writeUtf8(value.toString());
+        return this;
+    }
+
+    /**
+     * @return number of bytes currently buffered, which excludes anything already drained to the sink
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Discard the buffered output and nesting state so the writer (and its buffer) can be reused.
+     */
+    public void reset() {
+        reset(null);
+    }
+
+    /**
+     * Discard the buffered output and nesting state, and drain all further output into the given sink.
+     *
+     * @param sink stream receiving the output, or null to buffer the whole document
+     */
+    public void reset(OutputStream sink) {
+        this.sink = sink;
+        count = 0;
+        depth = 0;
+        hasValue[0] = false;
+        afterName = false;
+    }
+
+    /**
+     * Drain any buffered output into the sink. Has no effect without a sink.
+     *
+     * @throws IOException if the sink fails
+     */
+    public void flush() throws IOException {
+        if (sink != null && count > 0) {
+            sink.write(buf, 0, count);
+            count = 0;
+        }
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    /**
+     * @return the backing array; only the first {@link #size()} bytes are valid
+     */
+    byte[] array() {
+        return buf;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, count, UTF_8);
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+        } else if (hasValue[depth]) {
+            write(',');
+        }
+        hasValue[depth] = true;
+    }
+
+    private void push() {
+        if (++depth == MAX_DEPTH) {
+            throw new IllegalStateException("JSON nesting too deep");
+        }
+        hasValue[depth] = false;
+    }
+
+    private void pop() {
+        if (depth == 0) {
+            throw new IllegalStateException("Unbalanced JSON structure");
+        }
+        depth--;
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii("-9223372036854775808");
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buf[count++] = '-';
+            value = -value;
+        }
+        int end = count + digitCount(value);
+        count = end;
+        do {
+            buf[--end] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+    }
+
+    private static int digitCount(long value) {
+        int digits = 1;
+        long bound = 10;
+        while (digits < 19 && value >= bound) {
+            digits++;
+            bound *= 10;
+        }
+        return digits;
+    }
+
+    /**
+     * Float.toString uses plain notation for 10^-3 <= |value| < 10^7 and emits the shortest digit string that
+     * uniquely identifies the float, breaking ties towards even. Scaling by powers of ten and rounding half-even
+     * finds that same digit string without allocating; anything outside the range falls back to Float.toString.
+     */
+    private void writeFloat(float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            write(NULL);
+            return;
+        }
+        if (value == 0.0f) {
+            writeAscii(Float.floatToRawIntBits(value) == 0 ? "0.0" : "-0.0");
+            return;
+        }
+        final float magnitude = Math.abs(value);
+        if (magnitude >= 1e-3f && magnitude < 1e7f) {
+            for (int scale = 1; scale < POWERS_OF_TEN.length; scale++) {
+                final long scaled = (long) Math.rint(magnitude * POWERS_OF_TEN[scale]);
+                if ((float) (scaled / POWERS_OF_TEN[scale]) == magnitude) {
+                    ensureCapacity(1);
+                    if (value < 0) {
+                        buf[count++] = '-';
+                    }
+                    writeFixed(scaled, scale);
+                    return;
+                }
+            }
+        }
+        writeAscii(Float.toString(value));
+    }
+
+    private void writeFixed(long scaled, int scale) {
+        final long unit = LONG_POWERS_OF_TEN[scale];
+        writeLong(scaled / unit);
+        long fraction = scaled % unit;
+        int digits = scale;
+        while (digits > 1 && fraction % 10 == 0) {
+            fraction /= 10;
+            digits--;
+        }
+        ensureCapacity(digits + 1);
+        buf[count++] = '.';
+        int end = count + digits;
+        count = end;
+        for (int i = 0; i < digits; i++) {
+            buf[--end] = (byte) ('0' + (fraction % 10));
+            fraction /= 10;
+        }
+    }
+
+    private void writeQuoted(String value) {
+        write('"');
+        writeEscaped(value);
+        write('"');
+    }
+
+    /**
+     * Escapes like {@code JSONValue.escape} and encodes to UTF-8 in the same pass. Unpaired surrogates become '?',
+     * matching {@code String.getBytes(UTF_8)}.
+     */
+    private void writeEscaped(String value) {
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            ensureCapacity(6);
+            switch (c) {
+                case '"':
+                    buf[count++] = '\\';
+                    buf[count++] = '"';
+                    continue;
+                case '\\':
+                    buf[count++] = '\\';
+                    buf[count++] = '\\';
+                    continue;
+                case '\b':
+                    buf[count++] = '\\';
+                    buf[count++] = 'b';
+                    continue;
+                case '\f':
+                    buf[count++] = '\\';
+                    buf[count++] = 'f';
+                    continue;
+                case '\n':
+                    buf[count++] = '\\';
+                    buf[count++] = 'n';
+                    continue;
+                case '\r':
+                    buf[count++] = '\\';
+                    buf[count++] = 'r';
+                    continue;
+                case '\t':
+                    buf[count++] = '\\';
+                    buf[count++] = 't';
+                    continue;
+                case '/':
+                    buf[count++] = '\\';
+                    buf[count++] = '/';
+                    continue;
+                default:
+                    break;
+            }
+            if (c <= '\u001F' || (c >= '\u007F' && c <= '\u009F') || (c >= '\u2000' && c <= '\u20FF')) {
+                buf[count++] = '\\';
+                buf[count++] = 'u';
+                buf[count++] = HEX[(c >> 12) & 0xF];
+                buf[count++] = HEX[(c >> 8) & 0xF];
+                buf[count++] = HEX[(c >> 4) & 0xF];
+                buf[count++] = HEX[c & 0xF];
+            } else if (c < 0x80) {
+                buf[count++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[count++] = (byte) (0xC0 | (c >> 6));
+                buf[count++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buf[count++] = (byte) (0xF0 | (codePoint >> 18));
+                    buf[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buf[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buf[count++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    buf[count++] = '?';
+                }
+            } else {
+                buf[count++] = (byte) (0xE0 | (c >> 12));
+                buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void writeAscii(String value) {
+        final int length = value.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buf[count++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void writeUtf8(String value) {
+        write(value.getBytes(UTF_8));
+    }
+
+    private void write(int b) {
+        ensureCapacity(1);
+        buf[count++] = (byte) b;
+    }
+
+    private void write(byte[] bytes) {
+        if (sink != null && bytes.length > buf.length) {
+            drain();
+            try {
+                sink.write(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return;
+        }
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buf, count, bytes.length);
+        count += bytes.length;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (count + additional > buf.length && sink != null) {
+            drain();
+        }
+        final int required = count + additional;
+        if (required > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, required));
+        }
+    }
+
+    private void drain() {
+        try {
+            flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.payload;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Growable byte sink, like {@link java.io.ByteArrayOutputStream}, but it exposes its contents without copying and is
+ * reset rather than reallocated between payloads.
+ */
+public final class PayloadBuffer extends OutputStream {
+
+    private static final int SHRINK_FACTOR = 4;
+
+    private byte[] buf;
+    private int count;
+
+    public PayloadBuffer(int initialCapacity) {
+        buf = new byte[Math.max(initialCapacity, 64)];
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buf, count, length);
+        count += length;
+    }
+
+    @Override
+    public void write(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+    }
+
+    public void reset() {
+        count = 0;
+    }
+
+    /**
+     * Empty the buffer and make its capacity fit the expected size: grow it if it's too small, and replace it if it's
+     * more than {@value #SHRINK_FACTOR} times larger than needed.
+     *
+     * @param expectedSize number of bytes the next use is expected to write
+     */
+    public void reset(int expectedSize) {
+        count = 0;
+        if (buf.length < expectedSize || buf.length / SHRINK_FACTOR > expectedSize) {
+            buf = new byte[Math.max(expectedSize, 64)];
+        }
+    }
+
+    public int capacity() {
+        return buf.length;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the backing array; only the first {@link #size()} bytes are valid
+     */
+    public byte[] array() {
+        return buf;
+    }
+
+    /**
+     * @return a read-only view of the buffered bytes, valid until the next write or reset
+     */
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(buf, 0, count).asReadOnlyBuffer();
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, count, UTF_8);
+    }
+
+    /**
+     * Closing has no effect, so encoder streams wrapping this buffer can be closed to finish them.
+     */
+    @Override
+    public void close() {
+    }
+
+    private void ensureCapacity(int additional) {
+        final int required = count + additional;
+        if (required > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, required));
+        }
+    }
+
+}
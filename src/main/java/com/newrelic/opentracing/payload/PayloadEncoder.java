@@ -0,0 +1,404 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.payload;
+
+import com.newrelic.opentracing.LambdaSpan;
+import com.newrelic.opentracing.events.ErrorEvent;
+import com.newrelic.opentracing.events.TransactionEvent;
+import com.newrelic.opentracing.traces.ErrorTrace;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Encodes NR_LAMBDA_MONITORING payload lines, splitting the data across as many lines as needed to keep each one
+ * within a byte budget (CloudWatch Logs truncates events over 256 KB). Every line is a complete payload with its own
+ * metadata; the transaction event goes in the first line, and spans, error events and error traces fill lines in
+ * order.
+ *
+ * Each span, event or trace is serialized once, into a small scratch buffer, and compressed straight into the line's
+ * gzip member (see {@link SegmentedGzipWriter}), which is base64 encoded into {@link #payload()} as it's written. The section headers that carry per-line counts are written as
+ * stored blocks when a section closes, so the size of a line is known, or tightly bounded, as items are added, and
+ * nothing is serialized or compressed twice when a line fills up.
+ *
+ * Payloads are either encoded in one go, or built incrementally so spans can be compressed as they finish rather than
+ * when the root span does; in that case the transaction event follows the spans in the last line.
+ *
+ * Lines are separated by newlines in {@link #payload()}. The uncompressed data section is only rendered when a copy
+ * is requested for debug logging.
+ *
+ * The whole chain, including the native deflater, lives as long as the encoder. Instances are not thread-safe; borrow
+ * them from a {@link PayloadEncoderPool} and call {@link #end()} when an encoder is discarded.
+ */
+public final class PayloadEncoder {
+
+    // CloudWatch Logs allows 262144 bytes per event, including 26 bytes of overhead; leave some headroom
+    public static final int DEFAULT_MAX_LINE_BYTES = 256 * 1000;
+    static final int DEFAULT_PAYLOAD_CAPACITY = 32 * 1024;
+
+    private static final byte[] PAYLOAD_SUFFIX = { '"', ']' };
+    private static final byte[] COMMA = { ',' };
+    private static final byte[] SECTION_END = { ']', ']' };
+    private static final byte[] DATA_END = { '}' };
+    private static final byte[] EMPTY_DATA = { '{', '}' };
+    private static final int CLOSE_BOUND = SegmentedGzipWriter.storedSize(SECTION_END.length)
+            + SegmentedGzipWriter.storedSize(EMPTY_DATA.length) + SegmentedGzipWriter.trailerSize();
+
+    private final int maxLineBytes;
+    private final JsonWriter item = new JsonWriter(1024);
+    private final PayloadWriter itemWriter = new PayloadWriter(item);
+    private final JsonWriter header = new JsonWriter(128);
+    private final PayloadBuffer payload = new PayloadBuffer(DEFAULT_PAYLOAD_CAPACITY);
+    private final Base64OutputStream base64 = new Base64OutputStream(payload);
+    private final SegmentedGzipWriter gzip = new SegmentedGzipWriter(base64);
+    private final JsonWriter debugData = new JsonWriter(1024);
+
+    private PayloadFragments fragments;
+    private boolean keepDebugData;
+    private int lineCount;
+    private long dataSize;
+    private long spansDropped;
+    private boolean spansComplete; // no more spans will be added
+
+    // state of the line being built
+    private Section openSection;
+    private int sectionCount;
+    private int sectionsInLine;
+    private int itemsInLine;
+
+    public PayloadEncoder() {
+        this(DEFAULT_MAX_LINE_BYTES);
+    }
+
+    /**
+     * @param maxLineBytes byte budget for each payload line; a single item too large for it still gets a line of its own
+     */
+    public PayloadEncoder(int maxLineBytes) {
+        this.maxLineBytes = maxLineBytes;
+    }
+
+    /**
+     * Encode one or more payload lines into {@link #payload()}.
+     *
+     * @param fragments container-invariant envelope fragments, written uncompressed
+     * @param keepDebugData whether to also render the uncompressed data section for {@link #debugPayload()}
+     */
+    public void encode(PayloadFragments fragments, List<LambdaSpan> spans, TransactionEvent txnEvent, List<ErrorEvent> errorEvents,
+                       List<ErrorTrace> errorTraces, boolean keepDebugData) {
+        encode(fragments, spans, spans.size(), txnEvent, errorEvents, errorTraces, keepDebugData);
+    }
+
+    /**
+     * Encode one or more payload lines into {@link #payload()}.
+     *
+     * @param fragments container-invariant envelope fragments, written uncompressed
+     * @param spansSeen number of spans the trace produced, reported as events_seen; spans is a sample of them
+     * @param keepDebugData whether to also render the uncompressed data section for {@link #debugPayload()}
+     */
+    public void encode(PayloadFragments fragments, List<LambdaSpan> spans, long spansSeen, TransactionEvent txnEvent,
+                       List<ErrorEvent> errorEvents, List<ErrorTrace> errorTraces, boolean keepDebugData) {
+        encode(fragments, spans, spansSeen, txnEvent == null ? Collections.emptyList() : Collections.singletonList(txnEvent),
+                errorEvents, errorTraces, keepDebugData);
+    }
+
+    /**
+     * Encode one or more payload lines into {@link #payload()}.
+     *
+     * @param fragments container-invariant envelope fragments, written uncompressed
+     * @param spansSeen number of spans the trace produced, reported as events_seen; spans is a sample of them
+     * @param txnEvents the transaction events, one per root span of the invocation
+     * @param keepDebugData whether to also render the uncompressed data section for {@link #debugPayload()}
+     */
+    public void encode(PayloadFragments fragments, List<LambdaSpan> spans, long spansSeen, List<TransactionEvent> txnEvents,
+                       List<ErrorEvent> errorEvents, List<ErrorTrace> errorTraces, boolean keepDebugData) {
+        begin(fragments);
+        dropSpans(spansSeen - spans.size());
+        addTransactionEvents(txnEvents);
+        for (LambdaSpan span : spans) {
+            addSpan(span);
+        }
+        finish(Collections.emptyList(), errorEvents, errorTraces);
+        if (keepDebugData) {
+            keepDebugData(spans, txnEvents, errorEvents, errorTraces);
+        }
+    }
+
+    /**
+     * Start a payload that's built incrementally: spans are added with {@link #addSpan(LambdaSpan)}, typically as they
+     * finish, and {@link #finish(TransactionEvent, List, List)} completes it.
+     *
+     * @param fragments container-invariant envelope fragments, written uncompressed
+     */
+    public void begin(PayloadFragments fragments) {
+        this.fragments = fragments;
+        this.keepDebugData = false;
+        debugData.reset();
+        spansDropped = 0;
+        spansComplete = false;
+        payload.reset();
+        lineCount = 0;
+        dataSize = 0;
+        beginLine();
+    }
+
+    /**
+     * Serialize the span and compress it into the payload straight away. The encoder keeps no reference to it.
+     */
+    public void addSpan(LambdaSpan span) {
+        item.reset();
+        itemWriter.writeSpan(span);
+        add(Section.SPANS);
+    }
+
+    /**
+     * Count spans that were seen but left out of the payload. They're added to events_seen of the last span section.
+     */
+    public void dropSpans(long count) {
+        spansDropped += count;
+    }
+
+    /**
+     * Add the transaction event, after any spans, and the errors, and close the last line.
+     *
+     * @param txnEvent the transaction event, or null
+     */
+    public void finish(TransactionEvent txnEvent, List<ErrorEvent> errorEvents, List<ErrorTrace> errorTraces) {
+        finish(txnEvent == null ? Collections.emptyList() : Collections.singletonList(txnEvent), errorEvents, errorTraces);
+    }
+
+    /**
+     * Add the transaction events, after any spans, and the errors, and close the last line.
+     *
+     * @param txnEvents the transaction events, one per root span of the invocation
+     */
+    public void finish(List<TransactionEvent> txnEvents, List<ErrorEvent> errorEvents, List<ErrorTrace> errorTraces) {
+        spansComplete = true;
+        addTransactionEvents(txnEvents);
+        for (ErrorEvent errorEvent : errorEvents) {
+            item.reset();
+            itemWriter.writeErrorEvent(errorEvent);
+            add(Section.ERROR_EVENTS);
+        }
+        for (ErrorTrace errorTrace : errorTraces) {
+            item.reset();
+            itemWriter.writeErrorTrace(errorTrace);
+            add(Section.ERROR_TRACES);
+        }
+        closeLine();
+    }
+
+    /**
+     * Render the uncompressed data section of the finished payload for {@link #debugPayload()}.
+     */
+    public void keepDebugData(List<LambdaSpan> spans, TransactionEvent txnEvent, List<ErrorEvent> errorEvents, List<ErrorTrace> errorTraces) {
+        keepDebugData(spans, txnEvent == null ? Collections.emptyList() : Collections.singletonList(txnEvent), errorEvents, errorTraces);
+    }
+
+    /**
+     * Render the uncompressed data section of the finished payload for {@link #debugPayload()}.
+     */
+    public void keepDebugData(List<LambdaSpan> spans, List<TransactionEvent> txnEvents, List<ErrorEvent> errorEvents,
+                              List<ErrorTrace> errorTraces) {
+        keepDebugData = true;
+        debugData.reset();
+        new PayloadWriter(debugData).writeData(spans, spans.size() + spansDropped, txnEvents, errorEvents, errorTraces);
+    }
+
+    /**
+     * @return the encoded payload lines, separated by newlines, valid until the next call to encode
+     */
+    public PayloadBuffer payload() {
+        return payload;
+    }
+
+    /**
+     * @return number of lines in {@link #payload()}
+     */
+    public int lineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return size in bytes of the uncompressed data sections of the last payload, across all lines
+     */
+    public long dataSize() {
+        return dataSize;
+    }
+
+    /**
+     * Size the buffers for the payload that's expected next: grow them up front instead of doubling mid-encode, and
+     * give back memory held over from an unusually large payload.
+     *
+     * @param expectedPayloadSize expected size of the payload lines, in bytes
+     */
+    void presize(int expectedPayloadSize) {
+        payload.reset(Math.max(expectedPayloadSize, DEFAULT_PAYLOAD_CAPACITY));
+    }
+
+    /**
+     * Release the native deflater. The encoder can't be used afterwards.
+     */
+    public void end() {
+        gzip.end();
+    }
+
+    /**
+     * @return the uncompressed DEBUG payload line, or null if the data section wasn't retained
+     */
+    public String debugPayload() {
+        if (!keepDebugData) {
+            return null;
+        }
+        // Equivalent to JSONArray.toJSONString(Arrays.asList(2, "DEBUG", metadata, data))
+        return fragments.debugPrefix() + debugData + "]";
+    }
+
+    private void addTransactionEvents(List<TransactionEvent> txnEvents) {
+        for (TransactionEvent txnEvent : txnEvents) {
+            item.reset();
+            itemWriter.writeEvent(txnEvent);
+            add(Section.TRANSACTION);
+        }
+    }
+
+    /**
+     * Add the item in the scratch writer to the current line, starting a new line first if it wouldn't fit.
+     */
+    private void add(Section section) {
+        if (section != openSection) {
+            closeSection();
+            openSection = section;
+            sectionCount = 0;
+        }
+
+        final int length = item.size();
+        if (itemsInLine > 0 && !fits(length + COMMA.length)) {
+            // The bound is pessimistic for data still inside the deflater; flush to measure before giving up on the line
+            gzip.flushBody();
+            if (!fits(length + COMMA.length)) {
+                closeLine();
+                beginLine();
+                openSection = section;
+            }
+        }
+
+        if (sectionCount > 0) {
+            gzip.writeBody(COMMA, 0, COMMA.length);
+        }
+        gzip.writeBody(item.array(), 0, length);
+        sectionCount++;
+        itemsInLine++;
+    }
+
+    /**
+     * @param additional uncompressed bytes about to be added to the open section
+     * @return whether the line would stay within budget
+     */
+    private boolean fits(int additional) {
+        final long memberBound = gzip.size()
+                // dropped spans may still be added to events_seen of a span section, so allow for the widest count
+                + SegmentedGzipWriter.storedSize(openSection.headerLength(
+                        openSection == Section.SPANS ? Long.MAX_VALUE : sectionCount + 1, sectionCount + 1))
+                + gzip.bodyBound(additional)
+                + CLOSE_BOUND;
+        final long lineBound = fragments.payloadPrefix().length + (memberBound + 2) / 3 * 4 + PAYLOAD_SUFFIX.length + 1;
+        return lineBound <= maxLineBytes;
+    }
+
+    /**
+     * @return events_seen of the open section if it held count items; dropped spans are reported in the last span
+     * section, once no more spans can follow
+     */
+    private long seen(int count) {
+        return openSection == Section.SPANS && spansComplete ? count + spansDropped : count;
+    }
+
+    private void beginLine() {
+        if (lineCount > 0) {
+            payload.write('\n');
+        }
+        payload.write(fragments.payloadPrefix());
+        base64.start();
+        gzip.begin();
+        openSection = null;
+        sectionCount = 0;
+        sectionsInLine = 0;
+        itemsInLine = 0;
+    }
+
+    /**
+     * Write the open section's header, now that its count is known, followed by its compressed items.
+     */
+    private void closeSection() {
+        if (openSection == null || sectionCount == 0) {
+            openSection = null;
+            return;
+        }
+        header.reset();
+        header.beginObject().name(openSection.key).beginArray().nullValue();
+        if (openSection.counted) {
+            header.beginObject()
+                    .name("events_seen").value(seen(sectionCount))
+                    .name("reservoir_size").value(sectionCount)
+                    .endObject();
+        }
+        header.beginArray();
+        if (sectionsInLine > 0) {
+            // sections after the first continue the data object
+            header.array()[0] = ',';
+        }
+        gzip.writeStored(header.array(), 0, header.size(), false);
+        gzip.closeBody();
+        gzip.writeStored(SECTION_END, 0, SECTION_END.length, false);
+        sectionsInLine++;
+        openSection = null;
+    }
+
+    private void closeLine() {
+        closeSection();
+        gzip.finish(sectionsInLine == 0 ? EMPTY_DATA : DATA_END);
+        dataSize += gzip.rawLength();
+        base64.finish();
+        payload.write(PAYLOAD_SUFFIX);
+        lineCount++;
+    }
+
+    private enum Section {
+        TRANSACTION("analytic_event_data", true),
+        SPANS("span_event_data", true),
+        ERROR_EVENTS("error_event_data", true),
+        ERROR_TRACES("error_data", false);
+
+        final String key;
+        final boolean counted;
+        // header length without the digits of the two counts
+        private final int fixedHeaderLength;
+
+        Section(String key, boolean counted) {
+            this.key = key;
+            this.counted = counted;
+            this.fixedHeaderLength = counted
+                    ? ("{\"" + key + "\":[null,{\"events_seen\":,\"reservoir_size\":},[").length()
+                    : ("{\"" + key + "\":[null,[").length();
+        }
+
+        int headerLength(long seen, int count) {
+            if (!counted) {
+                return fixedHeaderLength;
+            }
+            return fixedHeaderLength + digits(seen) + digits(count);
+        }
+
+        private static int digits(long value) {
+            int digits = 1;
+            for (long remaining = value / 10; remaining > 0; remaining /= 10) {
+                digits++;
+            }
+            return digits;
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.payload;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Container-scoped pool of {@link PayloadEncoder}s. A Lambda container handles one invocation at a time, so in practice
+ * a single encoder (with its deflater and buffers) is reused for every invocation; the extra slots only matter when
+ * root spans finish concurrently.
+ *
+ * Buffers are sized from an exponentially weighted moving average of recent payload sizes, so a warm container allocates
+ * nothing while payload sizes are steady, and a one-off large payload doesn't pin its memory for the container's life.
+ */
+public final class PayloadEncoderPool {
+
+    // Weight of the newest sample in the moving averages
+    private static final double ALPHA = 0.2;
+    // Room left above the average before a buffer would have to grow mid-encode
+    private static final double HEADROOM = 1.25;
+
+    private final AtomicReferenceArray<PayloadEncoder> slots;
+    private final int maxLineBytes;
+
+    // Updated without synchronization; a lost sample only makes the estimate slightly staler
+    private volatile double averagePayloadSize;
+
+    public PayloadEncoderPool(int size) {
+        this(size, PayloadEncoder.DEFAULT_MAX_LINE_BYTES);
+    }
+
+    /**
+     * @param size number of idle encoders kept
+     * @param maxLineBytes byte budget for each payload line, see {@link PayloadEncoder#PayloadEncoder(int)}
+     */
+    public PayloadEncoderPool(int size, int maxLineBytes) {
+        this.slots = new AtomicReferenceArray<>(size);
+        this.maxLineBytes = maxLineBytes;
+    }
+
+    /**
+     * @return an idle encoder, or a new one if all pooled encoders are in use, with buffers sized for the next payload
+     */
+    public PayloadEncoder acquire() {
+        PayloadEncoder encoder = null;
+        for (int i = 0; i < slots.length() && encoder == null; i++) {
+            encoder = slots.getAndSet(i, null);
+        }
+        if (encoder == null) {
+            encoder = new PayloadEncoder(maxLineBytes);
+        }
+        encoder.presize((int) (averagePayloadSize * HEADROOM));
+        return encoder;
+    }
+
+    /**
+     * Record the size of the encoder's last payload and return it to the pool. If the pool is full the encoder's
+     * deflater is released and it is dropped.
+     *
+     * @param encoder an encoder obtained from {@link #acquire()}
+     */
+    public void release(PayloadEncoder encoder) {
+        averagePayloadSize = average(averagePayloadSize, encoder.payload().size());
+
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.compareAndSet(i, null, encoder)) {
+                return;
+            }
+        }
+        encoder.end();
+    }
+
+    private static double average(double average, long sample) {
+        return average == 0 ? sample : average + ALPHA * (sample - average);
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.payload;
+
+import com.newrelic.opentracing.util.ProtocolUtil;
+import org.json.simple.JSONObject;
+
+import java.util.Map;
+import java.util.Objects;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Pre-encoded envelope pieces that stay the same for every payload a container sends: the version and marker, and
+ * the metadata object (protocol and agent versions, ARN and execution environment). They're serialized once per
+ * ARN/execution environment and spliced into each payload line as bytes.
+ */
+public final class PayloadFragments {
+
+    private static volatile PayloadFragments cached;
+
+    private final String arn;
+    private final String executionEnv;
+    private final String metadataJson;
+    private final byte[] payloadPrefix;
+    private final String debugPrefix;
+
+    private PayloadFragments(String arn, String executionEnv, Map<String, Object> metadata) {
+        this.arn = arn;
+        this.executionEnv = executionEnv;
+        this.metadataJson = JSONObject.toJSONString(metadata);
+        this.payloadPrefix = ("[2,\"NR_LAMBDA_MONITORING\"," + metadataJson + ",\"").getBytes(UTF_8);
+        this.debugPrefix = "[2,\"DEBUG\"," + metadataJson + ",";
+    }
+
+    /**
+     * The ARN and execution environment don't change within a container, so after the first payload this is a
+     * lookup of the last fragments built.
+     *
+     * @param arn the function's ARN
+     * @param executionEnv AWS execution environment
+     * @return fragments for the metadata {@link ProtocolUtil#getMetadata(String, String)} would build
+     */
+    public static PayloadFragments forFunction(String arn, String executionEnv) {
+        final PayloadFragments fragments = cached;
+        if (fragments != null && Objects.equals(fragments.arn, arn) && Objects.equals(fragments.executionEnv, executionEnv)) {
+            return fragments;
+        }
+        return cached = new PayloadFragments(arn, executionEnv, ProtocolUtil.getMetadata(arn, executionEnv));
+    }
+
+    /**
+     * @param metadata arbitrary metadata, serialized as given and not cached
+     * @return fragments for the given metadata
+     */
+    public static PayloadFragments of(Map<String, Object> metadata) {
+        return new PayloadFragments(null, null, metadata);
+    }
+
+    /**
+     * @return the metadata object as JSON
+     */
+    public String getMetadataJson() {
+        return metadataJson;
+    }
+
+    /**
+     * @return {@code [2,"NR_LAMBDA_MONITORING",<metadata>,"} as UTF-8; the encoded data and {@code "]} follow it
+     */
+    byte[] payloadPrefix() {
+        return payloadPrefix;
+    }
+
+    /**
+     * @return {@code [2,"DEBUG",<metadata>,}; the uncompressed data and {@code ]} follow it
+     */
+    String debugPrefix() {
+        return debugPrefix;
+    }
+
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.payload;
+
+import com.newrelic.opentracing.LambdaSpan;
+import com.newrelic.opentracing.LambdaSpanContext;
+import com.newrelic.opentracing.SpanAttributes;
+import com.newrelic.opentracing.TransportType;
+import com.newrelic.opentracing.dt.DistributedTracePayloadImpl;
+import com.newrelic.opentracing.events.ErrorEvent;
+import com.newrelic.opentracing.events.Event;
+import com.newrelic.opentracing.events.TransactionEvent;
+import com.newrelic.opentracing.state.DistributedTracingState;
+import com.newrelic.opentracing.traces.ErrorTrace;
+import com.newrelic.opentracing.util.DistributedTraceUtil;
+import com.newrelic.opentracing.util.TimeUtil;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the data section of a payload (span_event_data, analytic_event_data, error_event_data and error_data)
+ * by walking spans, events and traces directly, instead of building intermediate maps for json-simple.
+ */
+public final class PayloadWriter {
+
+    private final JsonWriter json;
+
+    public PayloadWriter(JsonWriter json) {
+        this.json = json;
+    }
+
+    public void writeData(List<LambdaSpan> spans, TransactionEvent transactionEvent, List<ErrorEvent> errorEvents, List<ErrorTrace> errorTraces) {
+        writeData(spans, spans.size(), transactionEvent, errorEvents, errorTraces);
+    }
+
+    /**
+     * @param spansSeen number of spans the trace produced, reported as events_seen; spans is a sample of them
+     */
+    public void writeData(List<LambdaSpan> spans, long spansSeen, TransactionEvent transactionEvent, List<ErrorEvent> errorEvents,
+                          List<ErrorTrace> errorTraces) {
+        writeData(spans, spansSeen, transactionEvent == null ? Collections.emptyList() : Collections.singletonList(transactionEvent),
+                errorEvents, errorTraces);
+    }
+
+    /**
+     * @param spansSeen number of spans the trace produced, reported as events_seen; spans is a sample of them
+     * @param transactionEvents one per root span of the invocation
+     */
+    public void writeData(List<LambdaSpan> spans, long spansSeen, List<TransactionEvent> transactionEvents, List<ErrorEvent> errorEvents,
+                          List<ErrorTrace> errorTraces) {
+        json.beginObject();
+
+        if (transactionEvents.size() > 0) {
+            json.name("analytic_event_data");
+            beginEvents(transactionEvents.size(), transactionEvents.size());
+            for (TransactionEvent transactionEvent : transactionEvents) {
+                writeEvent(transactionEvent);
+            }
+            endEvents();
+        }
+        if (spans.size() > 0) {
+            json.name("span_event_data");
+            beginEvents(spansSeen, spans.size());
+            for (LambdaSpan span : spans) {
+                writeSpan(span);
+            }
+            endEvents();
+        }
+        if (errorEvents.size() > 0) {
+            json.name("error_event_data");
+            beginEvents(errorEvents.size(), errorEvents.size());
+            for (ErrorEvent errorEvent : errorEvents) {
+                writeErrorEvent(errorEvent);
+            }
+            endEvents();
+        }
+        if (errorTraces.size() > 0) {
+            json.name("error_data");
+            json.beginArray().nullValue().beginArray();
+            for (ErrorTrace errorTrace : errorTraces) {
+                writeErrorTrace(errorTrace);
+            }
+            json.endArray().endArray();
+        }
+
+        json.endObject();
+    }
+
+    private void beginEvents(long seen, int count) {
+        json.beginArray()
+                .nullValue()
+                .beginObject()
+                .name("events_seen").value(seen)
+                .name("reservoir_size").value(count)
+                .endObject()
+                .beginArray();
+    }
+
+    private void endEvents() {
+        json.endArray().endArray();
+    }
+
+    public void writeSpan(LambdaSpan span) {
+        json.beginArray();
+
+        json.beginObject();
+        json.name("type").value("Span");
+        json.name("name").value(span.getOperationName());
+        json.name("timestamp").value(span.getTimestamp());
+        json.name("duration").value(span.getDurationInSeconds());
+        json.name("category").value(span.getCategory().toString());
+        if (span.isRootSpan()) {
+            json.name("nr.entryPoint").value(true);
+        }
+        if (span.parentId() != 0) {
+            json.name("parentId").guidValue(span.parentId());
+        } else {
+            final String parentId = span.getParentId();
+            if (parentId != null) {
+                json.name("parentId").value(parentId);
+            }
+        }
+        if (span.context() != null) {
+            final LambdaSpanContext context = (LambdaSpanContext) span.context();
+            json.name("transactionId").value(context.getTransactionId());
+            writeDistributedTracingAttributes(context.getDistributedTracingState(), span, context.getPriority());
+        }
+        json.endObject();
+
+        json.beginObject();
+        final SpanAttributes tags = span.getAttributes();
+        for (int i = 0; i < tags.size(); i++) {
+            if (!"error".equals(tags.key(i))) {
+                json.name(tags.key(i));
+                writeAttribute(tags, i);
+            }
+        }
+        json.endObject();
+
+        json.beginObject().endObject();
+        json.endArray();
+    }
+
+    /**
+     * Write an attribute's value straight from its slot, so primitives are never boxed.
+     */
+    private void writeAttribute(SpanAttributes attributes, int index) {
+        switch (attributes.type(index)) {
+            case SpanAttributes.TYPE_BOOLEAN:
+                json.value(attributes.booleanValue(index));
+                break;
+            case SpanAttributes.TYPE_INT:
+            case SpanAttributes.TYPE_LONG:
+                json.value(attributes.longValue(index));
+                break;
+            case SpanAttributes.TYPE_FLOAT:
+                json.value(attributes.floatValue(index));
+                break;
+            case SpanAttributes.TYPE_DOUBLE:
+                json.value(attributes.doubleValue(index));
+                break;
+            default:
+                json.value(attributes.value(index));
+        }
+    }
+
+    public void writeErrorEvent(ErrorEvent errorEvent) {
+        json.beginArray();
+
+        json.beginObject();
+        json.name("type").value("TransactionError");
+        json.name("error.class").value(errorEvent.getErrorClass());
+        json.name("error.message").value(errorEvent.getErrorMessage());
+        json.name("timestamp").value(errorEvent.getTimestamp());
+        json.name("duration").value(errorEvent.getTransactionDuration());
+        json.name("transactionName").value(errorEvent.getTransactionName());
+        json.name("nr.transactionGuid").value(errorEvent.getTransactionGuid());
+        writeMembers(errorEvent.getDistributedTraceIntrinsics());
+        json.endObject();
+
+        json.value(errorEvent.getUserAttributes());
+        json.beginObject().endObject();
+        json.endArray();
+    }
+
+    public void writeErrorTrace(ErrorTrace errorTrace) {
+        json.beginArray();
+        json.value(errorTrace.getTimestamp());
+        json.value(errorTrace.getTransactionName());
+        json.value(errorTrace.getMessage());
+        json.value(errorTrace.getErrorType());
+
+        json.beginObject();
+        json.name("stack_trace").value(errorTrace.getStackTrace());
+        json.name("agentAttributes").beginObject().endObject();
+        json.name("userAttributes").value(errorTrace.getUserAttributes());
+        json.name("intrinsics").value(errorTrace.getIntrinsics());
+        json.endObject();
+
+        json.value(errorTrace.getTransactionGuid());
+        json.endArray();
+    }
+
+    public void writeEvent(Event event) {
+        json.beginArray();
+        json.value(event.getIntrinsics());
+        json.value(event.getUserAttributes());
+        json.value(event.getAgentAttributes());
+        json.endArray();
+    }
+
+    private void writeMembers(Map<String, Object> members) {
+        for (Map.Entry<String, Object> member : members.entrySet()) {
+            json.name(member.getKey()).value(member.getValue());
+        }
+    }
+
+    /**
+     * Streaming equivalent of {@code DistributedTracing#getDistributedTracingAttributes}.
+     */
+    private void writeDistributedTracingAttributes(DistributedTracingState dtState, LambdaSpan span, float priority) {
+        final DistributedTracePayloadImpl inboundPayload = dtState.getInboundPayload();
+        if (inboundPayload != null) {
+            if (inboundPayload.hasParentType()) {
+                json.name("parent.type").value(inboundPayload.getParentType());
+            }
+            if (inboundPayload.hasApplicationId()) {
+                json.name("parent.app").value(inboundPayload.getApplicationId());
+            }
+            if (inboundPayload.hasAccountId()) {
+                json.name("parent.account").value(inboundPayload.getAccountId());
+            }
+
+            json.name("parent.transportType").value(TransportType.Unknown.name());
+
+            final long transportDurationInMillis = dtState.getTransportTimeMillis();
+            if (transportDurationInMillis >= 0) {
+                json.name("parent.transportDuration").value(transportDurationInMillis / TimeUtil.MILLISECONDS_PER_SECOND);
+            }
+        }
+
+        json.name("guid");
+        if (span.id() != 0) {
+            json.guidValue(span.id());
+        } else {
+            json.value(span.guid());
+        }
+        json.name("traceId").value(dtState.getTraceId());
+        json.name("priority").value(priority);
+        json.name("sampled").value(DistributedTraceUtil.isSampledPriority(priority));
+    }
+
+}
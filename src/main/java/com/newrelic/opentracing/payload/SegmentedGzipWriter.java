@@ -0,0 +1,274 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.payload;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Builds a gzip member out of independently encoded segments, so the compressed size is known (or bounded) while
+ * it's being built and small pieces can be placed in front of data that was compressed earlier.
+ * <ul>
+ *     <li>Stored segments ({@link #writeStored}) are short, exactly sized deflate stored blocks, used for the JSON
+ *     that depends on counts only known at the end of a section.</li>
+ *     <li>The body ({@link #writeBody}) is compressed with a long-lived raw {@link Deflater} into a side buffer and
+ *     moved into the member by {@link #closeBody()}, ending in a sync flush so the next segment starts on a byte
+ *     boundary.</li>
+ * </ul>
+ * The CRC-32 of the member is stitched together from the segment CRCs with the zlib {@code crc32_combine} algorithm.
+ *
+ * Everything but the open body is final once written, so the member goes straight into a base64 stream rather than
+ * being collected first; only the open body segment is ever held in compressed form.
+ */
+final class SegmentedGzipWriter {
+
+    // magic, CM = deflate, no flags, no mtime, no extra flags, OS = unknown
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+    private static final int TRAILER_LENGTH = 8;
+    private static final int MAX_STORED_BLOCK = 0xffff;
+    private static final int STORED_BLOCK_OVERHEAD = 5;
+    // zlib's deflateBound slack for a raw stream, plus the empty stored block written by a sync flush
+    private static final int DEFLATE_BOUND_SLACK = 13 + STORED_BLOCK_OVERHEAD + 1;
+    private static final long CRC32_POLYNOMIAL = 0xedb88320L;
+
+    private final Base64OutputStream member;
+    private final PayloadBuffer body = new PayloadBuffer(8 * 1024);
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final byte[] deflated = new byte[8 * 1024];
+    private final byte[] blockHeader = new byte[TRAILER_LENGTH];
+    private final CRC32 segmentCrc = new CRC32();
+    private final CRC32 bodyCrc = new CRC32();
+
+    private long memberCrc;
+    private long memberLength;
+    private int memberSize;
+    private long bodyLength;
+    private int bodyFlushedSize;
+    private long bodyPending;
+
+    // scratch matrices for crc32Combine
+    private final long[] even = new long[32];
+    private final long[] odd = new long[32];
+
+    /**
+     * @param member stream the member is encoded into; started and finished by the caller
+     */
+    SegmentedGzipWriter(Base64OutputStream member) {
+        this.member = member;
+    }
+
+    /**
+     * Start a new member.
+     */
+    void begin() {
+        memberCrc = 0;
+        memberLength = 0;
+        memberSize = 0;
+        resetBody();
+        write(HEADER, 0, HEADER.length);
+    }
+
+    /**
+     * Append bytes as stored (uncompressed) blocks. The body must be closed first.
+     */
+    void writeStored(byte[] bytes, int offset, int length, boolean last) {
+        segmentCrc.reset();
+        segmentCrc.update(bytes, offset, length);
+        append(segmentCrc.getValue(), length);
+
+        do {
+            final int blockLength = Math.min(length, MAX_STORED_BLOCK);
+            final boolean finalBlock = last && blockLength == length;
+            blockHeader[0] = (byte) (finalBlock ? 1 : 0);
+            blockHeader[1] = (byte) blockLength;
+            blockHeader[2] = (byte) (blockLength >>> 8);
+            blockHeader[3] = (byte) ~blockLength;
+            blockHeader[4] = (byte) (~blockLength >>> 8);
+            write(blockHeader, 0, STORED_BLOCK_OVERHEAD);
+            write(bytes, offset, blockLength);
+            offset += blockLength;
+            length -= blockLength;
+        } while (length > 0);
+    }
+
+    /**
+     * Compress bytes into the body segment.
+     */
+    void writeBody(byte[] bytes, int offset, int length) {
+        bodyCrc.update(bytes, offset, length);
+        bodyLength += length;
+        bodyPending += length;
+        deflater.setInput(bytes, offset, length);
+        while (!deflater.needsInput()) {
+            drain(Deflater.NO_FLUSH);
+        }
+    }
+
+    /**
+     * Sync flush the body, so {@link #bodyBound(int)} is exact for everything written so far.
+     */
+    void flushBody() {
+        if (bodyPending > 0) {
+            drainAll(Deflater.SYNC_FLUSH);
+            bodyFlushedSize = body.size();
+            bodyPending = 0;
+        }
+    }
+
+    /**
+     * Move the compressed body into the member and start a new, independent body segment.
+     */
+    void closeBody() {
+        if (bodyLength > 0) {
+            flushBody();
+            write(body.array(), 0, body.size());
+            append(bodyCrc.getValue(), bodyLength);
+        }
+        resetBody();
+    }
+
+    /**
+     * @param additional uncompressed bytes about to be added to the body
+     * @return upper bound for the compressed body size once they've been added and the body is closed
+     */
+    long bodyBound(int additional) {
+        final long pending = bodyPending + additional;
+        return bodyFlushedSize + (pending == 0 ? 0 : pending + (pending >> 12) + (pending >> 14) + (pending >> 25) + DEFLATE_BOUND_SLACK);
+    }
+
+    /**
+     * Close the body, write the tail as the final stored block and append the gzip trailer.
+     */
+    void finish(byte[] tail) {
+        closeBody();
+        writeStored(tail, 0, tail.length, true);
+        writeIntLE((int) memberCrc, 0);
+        writeIntLE((int) memberLength, 4);
+        write(blockHeader, 0, TRAILER_LENGTH);
+    }
+
+    /**
+     * @return compressed bytes in the member so far, excluding the open body
+     */
+    int size() {
+        return memberSize;
+    }
+
+    /**
+     * @return uncompressed bytes in the member so far, including the open body
+     */
+    long rawLength() {
+        return memberLength + bodyLength;
+    }
+
+    /**
+     * Release the native deflater. The writer can't be used afterwards.
+     */
+    void end() {
+        deflater.end();
+    }
+
+    static int storedSize(int length) {
+        return length + STORED_BLOCK_OVERHEAD * Math.max(1, (length + MAX_STORED_BLOCK - 1) / MAX_STORED_BLOCK);
+    }
+
+    static int trailerSize() {
+        return TRAILER_LENGTH;
+    }
+
+    private void resetBody() {
+        deflater.reset();
+        body.reset();
+        bodyCrc.reset();
+        bodyLength = 0;
+        bodyFlushedSize = 0;
+        bodyPending = 0;
+    }
+
+    private void write(byte[] bytes, int offset, int length) {
+        member.write(bytes, offset, length);
+        memberSize += length;
+    }
+
+    private void drainAll(int flush) {
+        int length;
+        do {
+            length = drain(flush);
+        } while (length == deflated.length);
+    }
+
+    private int drain(int flush) {
+        final int length = deflater.deflate(deflated, 0, deflated.length, flush);
+        body.write(deflated, 0, length);
+        return length;
+    }
+
+    private void append(long crc, long length) {
+        memberCrc = crc32Combine(memberCrc, crc, length);
+        memberLength += length;
+    }
+
+    private void writeIntLE(int value, int offset) {
+        blockHeader[offset] = (byte) value;
+        blockHeader[offset + 1] = (byte) (value >> 8);
+        blockHeader[offset + 2] = (byte) (value >> 16);
+        blockHeader[offset + 3] = (byte) (value >> 24);
+    }
+
+    /**
+     * CRC-32 of two concatenated byte sequences from their separate CRCs, ported from zlib's crc32_combine.
+     */
+    private long crc32Combine(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        // operator for one zero bit in odd
+        odd[0] = CRC32_POLYNOMIAL;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd); // two zero bits
+        gf2MatrixSquare(odd, even); // four zero bits
+
+        // apply length2 zeros to crc1 (the first square puts the operator for one zero byte in even)
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(matrix, matrix[n]);
+        }
+    }
+
+}
@@ -1,24 +1,276 @@
 package com.newrelic.opentracing.pipe;
 
-import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writer for the telemetry named pipe read by the New Relic Lambda extension. The extension reads one payload per
+ * open of the pipe, up to end of file, so each payload is written through its own open and the pipe is closed after
+ * it. Like the {@code FileWriter} this replaced, the pipe is opened with truncation, which only matters if the path is
+ * a regular file; unlike it, the path isn't created, so a pipe that went away is noticed rather than replaced by a file.
+ *
+ * The extension creates the pipe before the function is initialized, so whether it exists is looked up once and
+ * remembered: a pipe that was found is only looked for again after a write finds it gone, and a missing one at most
+ * once a second.
+ *
+ * Opening a FIFO blocks until a reader attaches, and writing blocks while the pipe is full, so
+ * {@link #writeToPipe(long, TimeUnit, ByteBuffer...)} runs the write on a watchdog-supervised writer thread and gives
+ * up after a deadline. The caller falls back to stdout only if nothing can have reached the pipe; a payload given up
+ * part way through is cut off by closing the pipe, so the extension sees a short record rather than one run together
+ * with the next, and no copy of it goes to stdout. Counters for each outcome are exposed.
+ */
+public class NrTelemetryPipe implements Closeable {
+    private static final long RECHECK_MISSING_NANOS = TimeUnit.SECONDS.toNanos(1);
 
-public class NrTelemetryPipe {
     private final File namedPipePath;
+    private volatile boolean exists;
+    private volatile long checkedAt;
+    private volatile boolean checked;
+    private volatile FileChannel channel;
+
+    private final Object writerLock = new Object();
+    private ThreadPoolExecutor writer;
+
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong stalls = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong truncations = new AtomicLong();
 
     public NrTelemetryPipe(File namedPipePath) {
         this.namedPipePath = namedPipePath;
     }
 
     public boolean namedPipeExists() {
-        return namedPipePath.exists();
+        if (!exists) {
+            final long now = System.nanoTime();
+            if (!checked || now - checkedAt >= RECHECK_MISSING_NANOS) {
+                exists = namedPipePath.exists();
+                checkedAt = now;
+                checked = true;
+            }
+        }
+        return exists;
     }
 
     public void writeToPipe(String payload) throws IOException {
-        try (BufferedWriter pipe = new BufferedWriter(new FileWriter(namedPipePath, false))) {
-            pipe.write(payload);
+        writeToPipe(ByteBuffer.wrap(payload.getBytes(UTF_8)));
+    }
+
+    /**
+     * Write the buffers, in order, with gathering writes, as one payload: the pipe is opened for it and closed after.
+     * This blocks for as long as opening or writing the pipe does.
+     *
+     * @param payload buffers making up one payload
+     * @throws IOException if the pipe can't be opened or written
+     */
+    public void writeToPipe(ByteBuffer... payload) throws IOException {
+        write(payload, null);
+    }
+
+    /**
+     * Write the buffers like {@link #writeToPipe(ByteBuffer...)}, but give up once the deadline passes. A write
+     * abandoned after it started writing is interrupted, which closes the pipe and ends the record early; a write
+     * blocked opening the pipe is left to finish opening and then closes it without writing. While it is outstanding,
+     * further writes are refused immediately rather than queued.
+     *
+     * The buffers must not be modified until this returns.
+     *
+     * @param timeout how long to wait for the open and the write together
+     * @param unit unit of the timeout
+     * @param payload buffers making up one payload
+     * @return false if nothing reached the pipe and the caller should fall back to another transport, true if the
+     *         payload was written or was cut off part way (see {@link #getTruncatedCount()})
+     */
+    public boolean writeToPipe(long timeout, TimeUnit unit, ByteBuffer... payload) {
+        final ThreadPoolExecutor writer = writer();
+        // A cancelled future reports done straight away, so ask the pool whether the writer thread is still blocked
+        if (writer.getActiveCount() > 0) {
+            stalls.incrementAndGet();
+            return false;
         }
+
+        final Attempt attempt = new Attempt();
+        final Future<?> write = writer.submit(() -> {
+            write(payload, attempt);
+            return null;
+        });
+        try {
+            write.get(timeout, unit);
+            writes.incrementAndGet();
+            return true;
+        } catch (TimeoutException e) {
+            timeouts.incrementAndGet();
+            return abandon(attempt, write);
+        } catch (ExecutionException e) {
+            failures.incrementAndGet();
+            // A failed write(2) transfers nothing, so only the calls that returned can have reached the pipe
+            if (attempt.written > 0) {
+                truncations.incrementAndGet();
+                return true;
+            }
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failures.incrementAndGet();
+            return abandon(attempt, write);
+        }
+    }
+
+    /**
+     * @return payloads written by {@link #writeToPipe(long, TimeUnit, ByteBuffer...)} within their deadline
+     */
+    public long getWriteCount() {
+        return writes.get();
+    }
+
+    /**
+     * @return payloads abandoned because the pipe couldn't be opened or written before the deadline
+     */
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    /**
+     * @return payloads cut off part way through, after some of them may have reached the pipe; these are counted as
+     *         timeouts or failures too, but aren't written to the fallback transport
+     */
+    public long getTruncatedCount() {
+        return truncations.get();
+    }
+
+    /**
+     * @return payloads refused immediately because an earlier write was still blocked
+     */
+    public long getStalledCount() {
+        return stalls.get();
+    }
+
+    /**
+     * @return payloads that failed with an error
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * Stop the writer thread, closing the pipe if a payload is being written. A write still blocked opening the pipe
+     * isn't waited for.
+     */
+    @Override
+    public void close() {
+        synchronized (writerLock) {
+            if (writer != null) {
+                writer.shutdownNow();
+                writer = null;
+            }
+        }
+        closeChannel();
+    }
+
+    /**
+     * @return whether the write had started, in which case it's cut off rather than left for the fallback to repeat
+     */
+    private boolean abandon(Attempt attempt, Future<?> write) {
+        final boolean started = !attempt.compareAndSet(Attempt.OPENING, Attempt.ABANDONED);
+        // Interrupting the writer closes the pipe, so the reader sees the end of a short record
+        write.cancel(true);
+        if (started) {
+            truncations.incrementAndGet();
+        }
+        return started;
+    }
+
+    private ThreadPoolExecutor writer() {
+        synchronized (writerLock) {
+            if (writer == null) {
+                writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                    final Thread thread = new Thread(runnable, "nr-telemetry-pipe");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            return writer;
+        }
+    }
+
+    private void closeChannel() {
+        final FileChannel open = channel;
+        channel = null;
+        if (open != null) {
+            try {
+                open.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @param attempt tracks a write supervised by the watchdog, or null
+     */
+    private synchronized void write(ByteBuffer[] payload, Attempt attempt) throws IOException {
+        try (FileChannel open = openPipe()) {
+            if (attempt != null && !attempt.compareAndSet(Attempt.OPENING, Attempt.WRITING)) {
+                // The caller gave up while the open was blocked, and has already fallen back
+                return;
+            }
+            channel = open;
+            while (hasRemaining(payload)) {
+                final long written = open.write(payload);
+                if (attempt != null) {
+                    attempt.written += written;
+                }
+            }
+        } finally {
+            channel = null;
+        }
+    }
+
+    private FileChannel openPipe() throws IOException {
+        try {
+            return FileChannel.open(namedPipePath.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (NoSuchFileException e) {
+            // look for it again next time rather than trusting the remembered answer
+            exists = false;
+            checked = false;
+            throw e;
+        }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * State of one supervised write. The writer thread moves it from opening to writing once the pipe is open, and the
+     * watchdog from opening to abandoned when it gives up; whichever gets there first decides whether any of the
+     * payload can reach the pipe.
+     */
+    private static final class Attempt extends AtomicInteger {
+        static final int OPENING = 0;
+        static final int WRITING = 1;
+        static final int ABANDONED = 2;
+
+        volatile long written;
     }
 }
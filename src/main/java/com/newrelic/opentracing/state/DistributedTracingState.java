@@ -19,7 +19,8 @@ public class DistributedTracingState {
 
     private final DistributedTracePayloadImpl inboundPayload;
     private final long transportTimeMillis;
-    private final String traceId;
+    private final long traceIdBits; // 0 when the trace id came from an inbound payload
+    private String traceId; // rendered on first use for new traces
     private final Map<String, String> baggage;
 
     public DistributedTracingState(LambdaPayloadContext context) {
@@ -27,13 +28,14 @@ public class DistributedTracingState {
         this.transportTimeMillis = context.getTransportDurationInMillis();
         this.baggage = context.getBaggage();
         this.traceId = inboundPayload.getTraceId();
+        this.traceIdBits = 0;
     }
 
     public DistributedTracingState() {
         inboundPayload = null;
         transportTimeMillis = Long.MIN_VALUE;
         this.baggage = Collections.emptyMap();
-        traceId = DistributedTraceUtil.generateGuid();
+        traceIdBits = DistributedTraceUtil.nextId();
     }
 
     public DistributedTracePayloadImpl getInboundPayload() {
@@ -41,7 +43,12 @@ public class DistributedTracingState {
     }
 
     public String getTraceId() {
-        return traceId;
+        String id = traceId;
+        if (id == null && traceIdBits != 0) {
+            // racing threads render the same string
+            traceId = id = DistributedTraceUtil.toGuid(traceIdBits);
+        }
+        return id;
     }
 
     public DistributedTracePayload createDistributedTracingPayload(LambdaSpan span) {
@@ -6,20 +6,34 @@
 package com.newrelic.opentracing.state;
 
 import com.newrelic.opentracing.util.DistributedTraceUtil;
+import com.newrelic.opentracing.util.TransactionNames;
 
 public class TransactionState {
 
-    private final String transactionId = DistributedTraceUtil.generateGuid();
+    private final long transactionId = DistributedTraceUtil.nextId();
+    private String transactionGuid; // rendered on first use
     private volatile float transactionDuration = 0f;
     private volatile boolean error = false;
     private volatile String transactionName;
 
     public String getTransactionId() {
-        return transactionId;
+        String guid = transactionGuid;
+        if (guid == null) {
+            // racing threads render the same string
+            transactionGuid = guid = DistributedTraceUtil.toGuid(transactionId);
+        }
+        return guid;
     }
 
     public void setTransactionName(String transactionType, String functionName) {
-        transactionName = transactionType + "/Function/" + functionName;
+        transactionName = TransactionNames.name(transactionType, functionName);
+    }
+
+    /**
+     * @param transactionName the full name, e.g. {@code Other/Function/handler}
+     */
+    public void setTransactionName(String transactionName) {
+        this.transactionName = transactionName;
     }
 
     public String getTransactionName() {
@@ -36,6 +36,38 @@ public class ErrorTrace implements JSONAware {
         this.transactionGuid = transactionGuid;
     }
 
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getTransactionName() {
+        return transactionName;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String getErrorType() {
+        return errorType;
+    }
+
+    public List<String> getStackTrace() {
+        return stackTrace;
+    }
+
+    public Map<String, Object> getIntrinsics() {
+        return intrinsics;
+    }
+
+    public Map<String, Object> getUserAttributes() {
+        return userAttributes;
+    }
+
+    public String getTransactionGuid() {
+        return transactionGuid;
+    }
+
     private Map<String, Object> getAttributes() {
         final Map<String, Object> attributes = new HashMap<>();
         attributes.put("stack_trace", stackTrace);
@@ -5,8 +5,6 @@
 
 package com.newrelic.opentracing.util;
 
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
 import java.util.concurrent.ThreadLocalRandom;
 
 public class DistributedTraceUtil {
@@ -26,46 +24,59 @@ public class DistributedTraceUtil {
     public static final String PRIORITY = "pr";
     public static final String SAMPLED = "sa";
 
-    // Instantiate a new DecimalFormat instance as it is not thread safe
-    private static final ThreadLocal<DecimalFormat> FORMATTER =
-            ThreadLocal.withInitial(() -> {
-                DecimalFormat format = new DecimalFormat();
-                DecimalFormatSymbols symbols = format.getDecimalFormatSymbols();
-                if (symbols.getDecimalSeparator() == ',') {
-                    format.applyLocalizedPattern("#,######");
-                } else {
-                    format.applyPattern("#.######");
-                }
-                return format;
-            });
+    public static final int GUID_LENGTH = 16;
+
+    private static final int PRIORITY_SCALE = 1_000_000;
 
     private static final char[] hexchars = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
 
     private DistributedTraceUtil() {
     }
 
-    // Note that the digits are generated in "reverse order", which is perfectly fine here.
+    /**
+     * @return a random, non-zero id; render it with {@link #toGuid(long)} or {@link #guidChar(long, int)} only when
+     * it's serialized or injected
+     */
+    public static long nextId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
     public static String generateGuid() {
-        long random = ThreadLocalRandom.current().nextLong();
-        char[] result = new char[16];
-        for (int i = 0; i < 16; ++i) {
-            result[i] = hexchars[(int) (random & 0xF)];
-            random >>= 4;
+        return toGuid(nextId());
+    }
+
+    public static String toGuid(long id) {
+        char[] result = new char[GUID_LENGTH];
+        for (int i = 0; i < GUID_LENGTH; ++i) {
+            result[i] = guidChar(id, i);
         }
         return new String(result);
     }
 
+    /**
+     * Note that the digits are generated in "reverse order", which is perfectly fine here.
+     *
+     * @param index position in the guid, less than {@link #GUID_LENGTH}
+     * @return the hex digit of the id's guid at that position
+     */
+    public static char guidChar(long id, int index) {
+        return hexchars[(int) ((id >>> (index << 2)) & 0xF)];
+    }
+
     public static boolean isSampledPriority(float priority) {
         return priority >= 1.0f;
     }
 
+    /**
+     * @return a random float in [0, 1) with at most six decimal places
+     */
     public static float nextTruncatedFloat() {
-        float next = 0.0f;
-        try {
-            next = Float.parseFloat(FORMATTER.get().format(ThreadLocalRandom.current().nextFloat()).replace(',', '.'));
-        } catch (NumberFormatException e) {
-        }
-        return next;
+        // float division rounds to the float nearest the six digit decimal, the same value Float.parseFloat would give
+        return ThreadLocalRandom.current().nextInt(PRIORITY_SCALE) / (float) PRIORITY_SCALE;
     }
 
 }
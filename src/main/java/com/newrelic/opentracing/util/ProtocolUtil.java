@@ -98,10 +98,20 @@ public class ProtocolUtil {
      * @return String compressed and encoded
      */
     public static String compressAndEncode(String source) {
+        return compressAndEncode(source.getBytes(UTF_8));
+    }
+
+    /**
+     * gzip compress and base64 encode.
+     *
+     * @param source UTF-8 bytes to be compressed and encoded
+     * @return String compressed and encoded
+     */
+    public static String compressAndEncode(byte[] source) {
         try {
             ByteArrayOutputStream output = new ByteArrayOutputStream();
             GZIPOutputStream gzip = new GZIPOutputStream(output);
-            gzip.write(source.getBytes(UTF_8));
+            gzip.write(source);
             gzip.flush();
             gzip.close();
             return Base64.getEncoder().encodeToString(output.toByteArray());
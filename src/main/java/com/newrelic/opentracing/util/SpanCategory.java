@@ -10,8 +10,10 @@ public enum SpanCategory {
     DATASTORE,
     GENERIC;
 
+    private final String label = name().toLowerCase();
+
     @Override
     public String toString() {
-        return name().toLowerCase();
+        return label;
     }
 }
@@ -7,23 +7,104 @@ package com.newrelic.opentracing.util;
 
 import com.newrelic.opentracing.LambdaSpan;
 
+import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Classifies spans from their tags. Classification is incremental: every tag that's set runs through
+ * {@link #classify(int, String, Object)}, which looks the key up in a precompiled table and flips bits in the span's
+ * classification word, so the category is a couple of bit tests when the span is written. To follow a new semantic
+ * convention, add its keys to the table and test the new bits in {@link #category(int)}.
+ */
 public class SpanCategoryDetection {
 
+    // set once any key of the group is present
+    private static final int DATASTORE_KEY = 1;
+    private static final int HTTP_KEY = 1 << 1;
+
+    // span.kind, replaced whenever the tag is
+    private static final int KIND_CLIENT = 1 << 8;
+    private static final int KIND_MASK = 0xff << 8;
+
+    private static final Map<String, Rule> RULES = new HashMap<>();
+    // one bit per first character (mod 64) of the keys in RULES, so most tags skip the lookup
+    private static final long FIRST_CHARS;
+
+    static {
+        present(DATASTORE_KEY, "db.instance", "db.statement", "db.type", "db.user");
+        present(HTTP_KEY, "http.method", "http.status_code", "http.url");
+        RULES.put("span.kind", new Rule(0, KIND_MASK, new String[] { "client" }, new int[] { KIND_CLIENT }));
+
+        long firstChars = 0;
+        for (String key : RULES.keySet()) {
+            firstChars |= 1L << key.charAt(0);
+        }
+        FIRST_CHARS = firstChars;
+    }
+
     private SpanCategoryDetection() {
     }
 
     public static SpanCategory detectSpanCategory(LambdaSpan span) {
-        final Map<String, Object> tags = span.getTags();
-        if (tags.containsKey("db.instance") || tags.containsKey("db.statement") || tags.containsKey("db.type") || tags.containsKey("db.user")) {
+        return category(span.getAttributes().categoryBits());
+    }
+
+    /**
+     * @param bits classification bits before the tag was set
+     * @param key the tag's key, not null
+     * @param value the tag's value; primitives can be passed as null, no rule looks at their values
+     * @return classification bits after the tag was set
+     */
+    public static int classify(int bits, String key, Object value) {
+        if (key.isEmpty() || (FIRST_CHARS & 1L << key.charAt(0)) == 0) {
+            return bits;
+        }
+        final Rule rule = RULES.get(key);
+        return rule == null ? bits : rule.apply(bits, value);
+    }
+
+    public static SpanCategory category(int bits) {
+        if ((bits & DATASTORE_KEY) != 0) {
             return SpanCategory.DATASTORE;
         }
-        if (tags.getOrDefault("span.kind", "").equals("client") &&
-                (tags.containsKey("http.method") || tags.containsKey("http.status_code") || tags.containsKey("http.url"))) {
+        if ((bits & KIND_MASK) == KIND_CLIENT && (bits & HTTP_KEY) != 0) {
             return SpanCategory.HTTP;
         }
         return SpanCategory.GENERIC;
     }
 
+    private static void present(int bit, String... keys) {
+        for (String key : keys) {
+            RULES.put(key, new Rule(bit, 0, null, null));
+        }
+    }
+
+    private static final class Rule {
+
+        private final int presentBits;
+        private final int valueMask;
+        private final String[] values;
+        private final int[] valueBits;
+
+        Rule(int presentBits, int valueMask, String[] values, int[] valueBits) {
+            this.presentBits = presentBits;
+            this.valueMask = valueMask;
+            this.values = values;
+            this.valueBits = valueBits;
+        }
+
+        int apply(int bits, Object value) {
+            bits |= presentBits;
+            if (valueMask != 0) {
+                bits &= ~valueMask;
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i].equals(value)) {
+                        bits |= valueBits[i];
+                    }
+                }
+            }
+            return bits;
+        }
+    }
+
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.util;
+
+/**
+ * Transaction names derived from the function ARN. A container only ever runs one function, so the names are built
+ * once and the last ARN seen is cached.
+ */
+public final class TransactionNames {
+
+    public static final String OTHER = "Other";
+    public static final String WEB_TRANSACTION = "WebTransaction";
+
+    private static volatile TransactionNames cached;
+
+    private final String arn;
+    private final String otherName;
+    private final String webTransactionName;
+
+    private TransactionNames(String arn) {
+        final String functionName = arn.substring(arn.lastIndexOf(':') + 1);
+        this.arn = arn;
+        this.otherName = name(OTHER, functionName);
+        this.webTransactionName = name(WEB_TRANSACTION, functionName);
+    }
+
+    /**
+     * @param transactionType {@link #OTHER} or {@link #WEB_TRANSACTION}
+     * @param arn the function's ARN
+     * @return {@code <transactionType>/Function/<function name>}, or null if the ARN has no function name
+     */
+    public static String forArn(String transactionType, String arn) {
+        if (arn == null || arn.indexOf(':') < 0) {
+            return null;
+        }
+        TransactionNames names = cached;
+        if (names == null || !names.arn.equals(arn)) {
+            cached = names = new TransactionNames(arn);
+        }
+        if (WEB_TRANSACTION.equals(transactionType)) {
+            return names.webTransactionName;
+        } else if (OTHER.equals(transactionType)) {
+            return names.otherName;
+        }
+        return name(transactionType, arn.substring(arn.lastIndexOf(':') + 1));
+    }
+
+    public static String name(String transactionType, String functionName) {
+        return transactionType + "/Function/" + functionName;
+    }
+
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.newrelic.opentracing.logging.InMemoryLogger;
+import com.newrelic.opentracing.logging.Log;
+import com.newrelic.opentracing.state.DistributedTracingState;
+import com.newrelic.opentracing.state.PrioritySamplingState;
+import com.newrelic.opentracing.state.TransactionState;
+import com.newrelic.opentracing.util.ProtocolUtil;
+import io.opentracing.Span;
+import io.opentracing.tag.Tag;
+import io.opentracing.tag.Tags;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class LambdaCollectorTest {
+
+    @Test
+    void streamsChildSpansAsTheyFinish() throws Exception {
+        Log.setInstance(new InMemoryLogger());
+
+        final LambdaSpan root = new LambdaSpan("root", System.currentTimeMillis(), System.nanoTime(), new HashMap<>(), null, "rootGuid");
+        root.setTag("aws.lambda.arn", "arn:aws:lambda:us-east-1:123456789012:function:handler");
+        root.setContext(new LambdaSpanContext(root, new DistributedTracingState(), new PrioritySamplingState(1.5f, true),
+                new TransactionState(), new LambdaCollector(true, 2000)));
+        for (int i = 0; i < 20; i++) {
+            final LambdaSpan child = newChild(root, "child" + i);
+            newChild(child, "grandChild" + i).finish();
+            child.finish();
+        }
+        root.finish();
+
+        final List<String> logs = Log.getInstance().getLogs();
+        final JSONArray payload = (JSONArray) new JSONParser().parse(logs.get(0));
+        final JSONObject data = (JSONObject) new JSONParser().parse(ProtocolUtil.decodeAndExtract((String) payload.get(3)));
+        assertEquals(41, guids(data).size());
+        assertEquals(1, ((List) ((List) data.get("analytic_event_data")).get(2)).size());
+
+        // the debug copy holds the same spans
+        final JSONArray debugPayload = (JSONArray) new JSONParser().parse(logs.get(1));
+        assertEquals(guids(data), guids((JSONObject) debugPayload.get(3)));
+    }
+
+    @Test
+    void streamsChildSpansFromManyThreads() throws Exception {
+        Log.setInstance(new InMemoryLogger());
+
+        final LambdaSpan root = new LambdaSpan("root", System.currentTimeMillis(), System.nanoTime(), new HashMap<>(), null, "rootGuid");
+        root.setContext(new LambdaSpanContext(root, new DistributedTracingState(), new PrioritySamplingState(1.5f, true),
+                new TransactionState(), new LambdaCollector(true, 2000)));
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    newChild(root, "child" + thread + "-" + i).finish();
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        root.finish();
+
+        final JSONArray payload = (JSONArray) new JSONParser().parse(Log.getInstance().getLogs().get(0));
+        final JSONObject data = (JSONObject) new JSONParser().parse(ProtocolUtil.decodeAndExtract((String) payload.get(3)));
+        assertEquals(801, guids(data).size());
+    }
+
+    @Test
+    void abandonedStreamIsReleased() throws Exception {
+        Log.setInstance(new InMemoryLogger());
+        final long lateBefore = LambdaCollector.lateSpanCount();
+
+        final LambdaCollector collector = new LambdaCollector(true, 2000);
+        final LambdaSpan root = new LambdaSpan("root", System.currentTimeMillis(), System.nanoTime(), new HashMap<>(), null, "rootGuid");
+        root.setContext(new LambdaSpanContext(root, new DistributedTracingState(), new PrioritySamplingState(1.5f, true),
+                new TransactionState(), collector));
+        newChild(root, "streamed").finish();
+
+        // the next invocation started before this one's root finished
+        collector.abandonStream();
+        newChild(root, "afterwards").finish();
+        assertEquals(lateBefore + 1, LambdaCollector.lateSpanCount());
+
+        // if the root does finish, its payload counts the span that was streamed, without the stream
+        root.finish();
+        final JSONArray payload = (JSONArray) new JSONParser().parse(Log.getInstance().getLogs().get(0));
+        final JSONObject data = (JSONObject) new JSONParser().parse(ProtocolUtil.decodeAndExtract((String) payload.get(3)));
+        final List spanEventData = (List) data.get("span_event_data");
+        assertTrue(guids(data).containsAll(Arrays.asList("rootGuid", "afterwards")));
+        assertFalse(guids(data).contains("streamed"));
+        assertEquals((long) guids(data).size() + 1, ((JSONObject) spanEventData.get(1)).get("events_seen"));
+    }
+
+    @Test
+    void reportsSpansSeenBeyondReservoir() throws Exception {
+        Log.setInstance(new InMemoryLogger());
+
+        final LambdaSpan root = new LambdaSpan("root", System.currentTimeMillis(), System.nanoTime(), new HashMap<>(), null, "rootGuid");
+        root.setContext(new LambdaSpanContext(root, new DistributedTracingState(), new PrioritySamplingState(1.5f, true),
+                new TransactionState(), new LambdaCollector(false, 50)));
+        for (int i = 0; i < 500; i++) {
+            newChild(root, "child" + i).finish();
+        }
+        root.finish();
+
+        final JSONArray payload = (JSONArray) new JSONParser().parse(Log.getInstance().getLogs().get(0));
+        final JSONObject data = (JSONObject) new JSONParser().parse(ProtocolUtil.decodeAndExtract((String) payload.get(3)));
+        final List spanEventData = (List) data.get("span_event_data");
+        assertEquals(501L, ((JSONObject) spanEventData.get(1)).get("events_seen"));
+        assertEquals(51L, ((JSONObject) spanEventData.get(1)).get("reservoir_size"));
+        assertEquals(51, ((List) spanEventData.get(2)).size());
+    }
+
+    @Test
+    void unsampledTraceKeepsOnlyErrors() throws Exception {
+        Log.setInstance(new InMemoryLogger());
+
+        final LambdaSpan root = new LambdaSpan("root", System.currentTimeMillis(), System.nanoTime(), new HashMap<>(), null, "rootGuid");
+        root.setContext(new LambdaSpanContext(root, new DistributedTracingState(), new PrioritySamplingState(0.5f, false),
+                new TransactionState(), new LambdaCollector(false, 2000)));
+        for (int i = 0; i < 10; i++) {
+            final Span child = LambdaTracer.INSTANCE.buildSpan("child" + i).asChildOf(root).withTag("kept", i).start();
+            assertTrue(child instanceof UnsampledLambdaSpan);
+            child.setTag("ignored", "value");
+            child.setTag((Tag<String>) null, "value");
+            assertEquals(Collections.singletonMap("kept", i), ((LambdaSpan) child).getTags());
+            if (i == 3) {
+                child.setTag(Tags.ERROR, true);
+                assertEquals(Boolean.TRUE, ((LambdaSpan) child).getTag("error"));
+                assertNull(((LambdaSpan) child).getTag("ignored"));
+                final Map<String, Object> fields = new HashMap<>();
+                fields.put("event", "error");
+                fields.put("error.object", new RuntimeException("failed"));
+                child.log(fields);
+            }
+            child.finish();
+        }
+        root.finish();
+
+        final JSONArray payload = (JSONArray) new JSONParser().parse(Log.getInstance().getLogs().get(0));
+        final JSONObject data = (JSONObject) new JSONParser().parse(ProtocolUtil.decodeAndExtract((String) payload.get(3)));
+        assertFalse(data.containsKey("span_event_data"));
+        assertEquals(1, ((List) ((List) data.get("error_event_data")).get(2)).size());
+        assertEquals(1, ((List) ((List) data.get("analytic_event_data")).get(2)).size());
+    }
+
+    @Test
+    void rootWaitsForAsyncChildren() throws Exception {
+        Log.setInstance(new InMemoryLogger());
+
+        final LambdaSpan root = new LambdaSpan("root", System.currentTimeMillis(), System.nanoTime(), new HashMap<>(), null, "rootGuid");
+        root.setContext(new LambdaSpanContext(root, new DistributedTracingState(), new PrioritySamplingState(1.5f, true),
+                new TransactionState(), new LambdaCollector(false, 2000, 10_000)));
+        final CompletableFuture<String> response = new CompletableFuture<>();
+        newChild(root, "async").finishOnCompletion(response);
+        newChild(root, "sync").finish();
+
+        final Thread completer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {
+            }
+            response.complete("done");
+        });
+        completer.start();
+        root.finish();
+        completer.join();
+
+        final JSONArray payload = (JSONArray) new JSONParser().parse(Log.getInstance().getLogs().get(0));
+        final JSONObject data = (JSONObject) new JSONParser().parse(ProtocolUtil.decodeAndExtract((String) payload.get(3)));
+        assertEquals(new HashSet<>(Arrays.asList("rootGuid", "async", "sync")), guids(data));
+    }
+
+    @Test
+    void rootStopsWaitingAfterTimeout() throws Exception {
+        Log.setInstance(new InMemoryLogger());
+
+        final LambdaSpan root = new LambdaSpan("root", System.currentTimeMillis(), System.nanoTime(), new HashMap<>(), null, "rootGuid");
+        root.setContext(new LambdaSpanContext(root, new DistributedTracingState(), new PrioritySamplingState(1.5f, true),
+                new TransactionState(), new LambdaCollector(false, 2000, 50)));
+        newChild(root, "async").finishOnCompletion(new CompletableFuture<>());
+        newChild(root, "sync").finish();
+
+        final long start = System.nanoTime();
+        root.finish();
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5_000);
+
+        final JSONArray payload = (JSONArray) new JSONParser().parse(Log.getInstance().getLogs().get(0));
+        final JSONObject data = (JSONObject) new JSONParser().parse(ProtocolUtil.decodeAndExtract((String) payload.get(3)));
+        assertEquals(new HashSet<>(Arrays.asList("rootGuid", "sync")), guids(data));
+    }
+
+    private static LambdaSpan newChild(LambdaSpan parent, String guid) {
+        final LambdaSpan child = new LambdaSpan(guid, System.currentTimeMillis(), System.nanoTime(), new HashMap<>(), parent, guid);
+        child.setContext(((LambdaSpanContext) parent.context()).newContext(child));
+        return child;
+    }
+
+    @Test
+    void mergesRootsOfAnInvocationIntoOnePayload() throws Exception {
+        Log.setInstance(new InMemoryLogger());
+
+        final List<LambdaSpan> spans = new ArrayList<>();
+        final LambdaSpan primary = (LambdaSpan) LambdaTracer.INSTANCE.buildSpan("handler").ignoreActiveSpan()
+                .withTag("aws.lambda.arn", "arn:aws:lambda:us-east-1:123456789012:function:handler").start();
+        spans.add(primary);
+        final Thread background = new Thread(() -> {
+            final LambdaSpan root = (LambdaSpan) LambdaTracer.INSTANCE.buildSpan("background").start();
+            final LambdaSpan child = (LambdaSpan) LambdaTracer.INSTANCE.buildSpan("backgroundChild").asChildOf(root).start();
+            child.finish();
+            root.finish();
+            spans.add(root);
+            spans.add(child);
+        });
+        background.start();
+        background.join();
+        assertTrue(Log.getInstance().getLogs().isEmpty());
+
+        final LambdaSpan child = (LambdaSpan) LambdaTracer.INSTANCE.buildSpan("child").asChildOf(primary).start();
+        child.finish();
+        spans.add(child);
+        primary.finish();
+
+        final List<String> logs = Log.getInstance().getLogs();
+        final JSONArray payload = (JSONArray) new JSONParser().parse(logs.get(0));
+        final JSONObject data = (JSONObject) new JSONParser().parse(ProtocolUtil.decodeAndExtract((String) payload.get(3)));
+        assertEquals(2, ((List) ((List) data.get("analytic_event_data")).get(2)).size());
+        final Set<Object> sampledGuids = new HashSet<>();
+        for (LambdaSpan span : spans) {
+            if (span.isSampled()) {
+                sampledGuids.add(span.guid());
+            }
+        }
+        assertEquals(sampledGuids, data.containsKey("span_event_data") ? guids(data) : new HashSet<>());
+        // one payload line, followed by its debug copy
+        assertEquals("DEBUG", ((JSONArray) new JSONParser().parse(logs.get(1))).get(1));
+
+        // a root span started once the primary has finished opens the next invocation
+        final int logged = logs.size();
+        LambdaTracer.INSTANCE.buildSpan("next").ignoreActiveSpan().start().finish();
+        assertTrue(logs.subList(logged, logs.size()).stream().anyMatch(line -> line.startsWith("[2,\"NR_LAMBDA_MONITORING\"")));
+    }
+
+    @Test
+    void reportsLateSpansWithTheNextPayload() throws Exception {
+        Log.setInstance(new InMemoryLogger());
+        final long lateBefore = LambdaCollector.lateSpanCount();
+
+        final LambdaSpan first = new LambdaSpan("first", System.currentTimeMillis(), System.nanoTime(), new HashMap<>(), null, "firstGuid");
+        first.setContext(new LambdaSpanContext(first, new DistributedTracingState(), new PrioritySamplingState(1.5f, true),
+                new TransactionState(), new LambdaCollector(false, 2000)));
+        final LambdaSpan straggler = newChild(first, "straggler");
+        first.finish();
+        straggler.finish();
+        assertEquals(lateBefore + 1, LambdaCollector.lateSpanCount());
+
+        final LambdaSpan next = new LambdaSpan("next", System.currentTimeMillis(), System.nanoTime(), new HashMap<>(), null, "nextGuid");
+        next.setContext(new LambdaSpanContext(next, new DistributedTracingState(), new PrioritySamplingState(1.5f, true),
+                new TransactionState(), new LambdaCollector(false, 2000)));
+        next.finish();
+
+        final List<String> logs = Log.getInstance().getLogs();
+        String payloadLine = null;
+        for (String line : logs) {
+            if (line.startsWith("[2,\"NR_LAMBDA_MONITORING\"")) {
+                payloadLine = line;
+            }
+        }
+        final JSONArray payload = (JSONArray) new JSONParser().parse(payloadLine);
+        final JSONObject data = (JSONObject) new JSONParser().parse(ProtocolUtil.decodeAndExtract((String) payload.get(3)));
+        assertTrue(guids(data).containsAll(Arrays.asList("nextGuid", "straggler")));
+        assertEquals(1, ((List) ((List) data.get("analytic_event_data")).get(2)).size());
+        assertTrue(logs.stream().anyMatch(line -> line.contains("finished after their root span's payload was written were added to this one")));
+    }
+
+    private static Set<Object> guids(JSONObject data) {
+        final Set<Object> guids = new HashSet<>();
+        for (Object span : (List) ((List) data.get("span_event_data")).get(2)) {
+            guids.add(((JSONObject) ((List) span).get(0)).get("guid"));
+        }
+        return guids;
+    }
+
+}
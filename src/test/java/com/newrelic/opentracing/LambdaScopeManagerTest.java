@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.newrelic.opentracing.logging.InMemoryLogger;
+import com.newrelic.opentracing.logging.Log;
+import io.opentracing.Scope;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class LambdaScopeManagerTest {
+
+    private final LambdaScopeManager scopeManager = new LambdaScopeManager();
+
+    @Test
+    void nestsAndReusesScopes() {
+        final LambdaSpan outer = span("outer");
+        final LambdaSpan inner = span("inner");
+
+        final Scope outerScope = scopeManager.activate(outer);
+        final Scope innerScope = scopeManager.activate(inner);
+        assertSame(inner, scopeManager.activeSpan());
+        innerScope.close();
+        assertSame(outer, scopeManager.activeSpan());
+        outerScope.close();
+        assertNull(scopeManager.activeSpan());
+
+        try (Scope scope = scopeManager.activate(inner)) {
+            assertSame(inner, scopeManager.activeSpan());
+        }
+        assertNull(scopeManager.activeSpan());
+    }
+
+    @Test
+    void closingTwiceAfterReactivationIsIgnored() {
+        final LambdaSpan outer = span("outer");
+        final LambdaSpan first = span("first");
+        final LambdaSpan second = span("second");
+
+        try (Scope outerScope = scopeManager.activate(outer)) {
+            final Scope firstScope = scopeManager.activate(first);
+            firstScope.close();
+            // reuses the frame first was activated in
+            final Scope secondScope = scopeManager.activate(second);
+            firstScope.close();
+            assertSame(second, scopeManager.activeSpan());
+            secondScope.close();
+            assertSame(outer, scopeManager.activeSpan());
+        }
+        assertNull(scopeManager.activeSpan());
+    }
+
+    @Test
+    void growsPastInitialDepth() {
+        final List<LambdaSpan> spans = new ArrayList<>();
+        final List<Scope> scopes = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            spans.add(span("span-" + i));
+            scopes.add(scopeManager.activate(spans.get(i)));
+        }
+        for (int i = 99; i >= 0; i--) {
+            assertSame(spans.get(i), scopeManager.activeSpan());
+            scopes.get(i).close();
+        }
+        assertNull(scopeManager.activeSpan());
+    }
+
+    @Test
+    void closingEnclosingScopeClosesLeakedOnes() {
+        final InMemoryLogger logger = new InMemoryLogger();
+        Log.setInstance(logger);
+
+        final LambdaSpan outer = span("outer");
+        final Scope outerScope = scopeManager.activate(outer);
+        final Scope leakedScope = scopeManager.activate(span("leaked"));
+        outerScope.close();
+        assertNull(scopeManager.activeSpan());
+        assertEquals(1, logger.getLogs().size());
+        final String message = logger.getLogs().get(0);
+        assertTrue(message.startsWith("Scope of span leaked was closed by an enclosing scope, activated at"), message);
+        assertTrue(message.contains("closingEnclosingScopeClosesLeakedOnes"), message);
+
+        // closing either again is ignored
+        try (Scope scope = scopeManager.activate(outer)) {
+            leakedScope.close();
+            assertSame(outer, scopeManager.activeSpan());
+        }
+        outerScope.close();
+        assertNull(scopeManager.activeSpan());
+    }
+
+    @Test
+    void closeOnAnotherThreadIsIgnored() throws Exception {
+        Log.setInstance(new InMemoryLogger());
+
+        final LambdaSpan span = span("span");
+        try (Scope scope = scopeManager.activate(span)) {
+            final Thread thread = new Thread(scope::close);
+            thread.start();
+            thread.join();
+            assertSame(span, scopeManager.activeSpan());
+        }
+        assertNull(scopeManager.activeSpan());
+    }
+
+    @Test
+    void reportsScopesOpenWhenRootFinishes() {
+        final InMemoryLogger logger = new InMemoryLogger();
+        Log.setInstance(logger);
+
+        final LambdaSpan root = span("root");
+        try (Scope rootScope = scopeManager.activate(root)) {
+            scopeManager.activate(span("child"));
+            scopeManager.reportLeakedScopes(root);
+        }
+        assertEquals(2, logger.getLogs().size());
+        assertTrue(logger.getLogs().get(0).startsWith("Scope of span child is still open when the root span finished"));
+        assertTrue(logger.getLogs().get(1).startsWith("Scope of span child was closed by an enclosing scope"));
+    }
+
+    private static LambdaSpan span(String name) {
+        return new LambdaSpan(name, System.currentTimeMillis(), System.nanoTime(), new HashMap<>(), null, name + "Guid");
+    }
+
+}
@@ -8,6 +8,8 @@ package com.newrelic.opentracing;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.newrelic.opentracing.logging.InMemoryLogger;
@@ -22,9 +24,11 @@ import org.json.simple.parser.ParseException;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.AfterEach;
@@ -78,6 +82,25 @@ class LambdaSpanTest {
     assertFalse(span.getUserAttributes().containsKey("error"));
   }
 
+  @Test
+  void reusedBuilderKeepsTagsApart() {
+    final LambdaSpan parent = SpanTestUtils.createSpan("parent", System.currentTimeMillis(), System.nanoTime(),
+        new HashMap<>(), null, "parentGuid");
+    final io.opentracing.Tracer.SpanBuilder builder = LambdaTracer.INSTANCE.buildSpan("child").asChildOf(parent)
+        .withTag("shared", "value");
+
+    final LambdaSpan first = (LambdaSpan) builder.start();
+    first.setTag("first-only", "value");
+    builder.withTag("after-start", "value");
+    assertNull(first.getTag("after-start"));
+
+    final LambdaSpan second = (LambdaSpan) builder.start();
+    assertEquals("value", second.getTag("shared"));
+    assertEquals("value", second.getTag("after-start"));
+    assertNull(second.getTag("first-only"));
+    assertEquals(2, first.getTags().size());
+  }
+
   @Test
   void spanCategory() {
     final long start = System.currentTimeMillis();
@@ -116,6 +139,24 @@ class LambdaSpanTest {
     assertEquals("grandChildGuid", greatGrandChild.getIntrinsics().get("parentId"));
   }
 
+  @Test
+  void spanParentingById() {
+    final LambdaSpan root = (LambdaSpan) LambdaTracer.INSTANCE.buildSpan("root").ignoreActiveSpan().start();
+    final LambdaSpan child = (LambdaSpan) LambdaTracer.INSTANCE.buildSpan("child").asChildOf(root).start();
+    final LambdaSpan grandChild = (LambdaSpan) LambdaTracer.INSTANCE.buildSpan("grandChild").asChildOf(child).start();
+
+    assertTrue(root.isRootSpan());
+    assertFalse(child.isRootSpan());
+    assertEquals(root.id(), child.parentId());
+    assertEquals(root.guid(), child.getParentId());
+    assertEquals(child.guid(), grandChild.getIntrinsics().get("parentId"));
+    // only the root, for its ARN, is reachable from a span besides its own
+    assertSame(root, ((LambdaSpanContext) grandChild.context()).getRootSpan());
+    grandChild.finish();
+    child.finish();
+    root.finish();
+  }
+
   @Test
   void testSampledTrue() {
     Log.setInstance(new InMemoryLogger());
@@ -286,6 +327,74 @@ class LambdaSpanTest {
     span.finish();
   }
 
+  @Test
+  void finishedSpanIsFrozen() {
+    final LambdaSpan parent = SpanTestUtils.createSpan("parent", System.currentTimeMillis(),
+        System.nanoTime(), new HashMap<>(), null, "parentGuid");
+    final LambdaSpan span = SpanTestUtils.createSpan("operationName", System.currentTimeMillis(),
+        System.nanoTime(), new HashMap<>(), parent, "guid");
+    span.setTag("db.statement", "SELECT 1");
+    span.setBaggageItem("key", "value");
+    span.log("not an error");
+    span.finish();
+
+    span.setTag("span.kind", "client");
+    span.setTag("http.url", "https://example.com");
+    span.setOperationName("renamed");
+    assertEquals("operationName", span.getOperationName());
+    assertEquals(1, span.getTags().size());
+    assertNull(span.getBaggageItem("key"));
+    assertNull(span.getLog("event"));
+
+    final Map<String, Object> intrinsics = span.getIntrinsics();
+    assertEquals("datastore", intrinsics.get("category"));
+    assertEquals("parentGuid", intrinsics.get("parentId"));
+    assertSame(intrinsics, span.getIntrinsics());
+    assertSame(span.getUserAttributes(), span.getUserAttributes());
+    assertThrows(UnsupportedOperationException.class, () -> span.getUserAttributes().put("key", "value"));
+  }
+
+  @Test
+  void concurrentMutationIsNotLost() throws InterruptedException {
+    final LambdaSpan parent = SpanTestUtils.createSpan("parent", System.currentTimeMillis(),
+        System.nanoTime(), new HashMap<>(), null, "parentGuid");
+    final LambdaSpan span = SpanTestUtils.createSpan("operationName", System.currentTimeMillis(),
+        System.nanoTime(), new HashMap<>(), parent, "guid");
+    final int threadCount = 8;
+    final int tagsPerThread = SpanAttributes.MAX_ATTRIBUTES / threadCount;
+    final CountDownLatch start = new CountDownLatch(1);
+    final Thread[] threads = new Thread[threadCount];
+    for (int t = 0; t < threadCount; t++) {
+      final int thread = t;
+      threads[t] = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int i = 0; i < tagsPerThread; i++) {
+          span.setTag("tag-" + thread + "-" + i, i);
+          span.setBaggageItem("baggage-" + thread + "-" + i, "value");
+          span.log(Collections.singletonMap("log-" + thread + "-" + i, i));
+        }
+      });
+      threads[t].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(SpanAttributes.MAX_ATTRIBUTES, span.getTags().size());
+    for (int t = 0; t < threadCount; t++) {
+      for (int i = 0; i < tagsPerThread; i++) {
+        assertEquals(i, span.getTag("tag-" + t + "-" + i));
+        assertEquals("value", span.getBaggageItem("baggage-" + t + "-" + i));
+        assertEquals(i, span.getLog("log-" + t + "-" + i).getValue());
+      }
+    }
+  }
+
   private boolean containsEventJsonKey(String jsonString, String key) {
     JSONParser parser = new JSONParser();
     try {
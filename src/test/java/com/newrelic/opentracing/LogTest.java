@@ -6,8 +6,10 @@
 package com.newrelic.opentracing;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
 
 import com.newrelic.opentracing.logging.ConsoleLogger;
 import com.newrelic.opentracing.logging.DebugLogger;
@@ -46,6 +48,10 @@ class LogTest {
         assertEquals("", outContent.toString());
         outContent.reset();
 
+        assertFalse(Log.getInstance().isDebugEnabled());
+        Log.getInstance().debug(() -> fail("Debug message built while debug logging is disabled"));
+        assertEquals("", outContent.toString());
+
         List<String> logs = Log.getInstance().getLogs();
         assertNotNull(logs);
         assertEquals(0, logs.size());
@@ -66,6 +72,11 @@ class LogTest {
         assertEquals("nr_debug: debug\n", outContent.toString());
         outContent.reset();
 
+        assertTrue(Log.getInstance().isDebugEnabled());
+        Log.getInstance().debug(() -> "lazy " + "debug");
+        assertEquals("nr_debug: lazy debug\n", outContent.toString());
+        outContent.reset();
+
         List<String> logs = Log.getInstance().getLogs();
         assertNotNull(logs);
         assertEquals(0, logs.size());
@@ -3,16 +3,26 @@ package com.newrelic.opentracing;
 import com.newrelic.opentracing.pipe.NrTelemetryPipe;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 public class PipeTest {
@@ -41,6 +51,196 @@ public class PipeTest {
         assertEquals(br.readLine(), payload);
     }
 
+    @Test
+    void testGatheringWriteTruncates() throws IOException {
+        try (NrTelemetryPipe nrTelemetryPipe = new NrTelemetryPipe(testPayloadPipe)) {
+            nrTelemetryPipe.writeToPipe(ByteBuffer.wrap("a longer first ".getBytes(UTF_8)), ByteBuffer.wrap("payload".getBytes(UTF_8)));
+            assertEquals("a longer first payload", new BufferedReader(new FileReader(testPayloadPipe)).readLine());
+            nrTelemetryPipe.writeToPipe(ByteBuffer.wrap("second ".getBytes(UTF_8)), ByteBuffer.wrap("payload".getBytes(UTF_8)));
+        }
+
+        BufferedReader br = new BufferedReader(new FileReader(testPayloadPipe));
+        assertEquals("second payload", br.readLine());
+    }
+
+    @Test
+    void testExistenceIsRememberedUntilAWriteFindsThePipeGone() throws IOException {
+        try (NrTelemetryPipe nrTelemetryPipe = new NrTelemetryPipe(testPayloadPipe)) {
+            assertTrue(nrTelemetryPipe.namedPipeExists());
+            assertTrue(testPayloadPipe.delete());
+            assertTrue(nrTelemetryPipe.namedPipeExists());
+
+            // the write doesn't create the path, so the caller falls back and the pipe is looked for again
+            assertFalse(nrTelemetryPipe.writeToPipe(10, TimeUnit.SECONDS, ByteBuffer.wrap("payload".getBytes(UTF_8))));
+            assertFalse(testPayloadPipe.exists());
+            assertFalse(nrTelemetryPipe.namedPipeExists());
+        } finally {
+            testPayloadPipe.createNewFile();
+        }
+    }
+
+    @Test
+    void testEachPayloadEndsWithEof() throws Exception {
+        final File fifo = new File("/tmp/newrelic-telemetry-fifo-test");
+        fifo.delete();
+        assumeTrue(mkfifo(fifo), "mkfifo is not available");
+        // Reads like the extension: one record per open, up to end of file
+        final BlockingQueue<String> records = new LinkedBlockingQueue<>();
+        final Thread reader = new Thread(() -> {
+            try {
+                while (true) {
+                    final ByteArrayOutputStream record = new ByteArrayOutputStream();
+                    try (FileInputStream in = new FileInputStream(fifo)) {
+                        final byte[] buffer = new byte[64];
+                        for (int count; (count = in.read(buffer)) >= 0; ) {
+                            record.write(buffer, 0, count);
+                        }
+                    }
+                    records.add(new String(record.toByteArray(), UTF_8));
+                }
+            } catch (IOException ignored) {
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+        try (NrTelemetryPipe nrTelemetryPipe = new NrTelemetryPipe(fifo)) {
+            nrTelemetryPipe.writeToPipe(ByteBuffer.wrap("first ".getBytes(UTF_8)), ByteBuffer.wrap("payload".getBytes(UTF_8)));
+            assertEquals("first payload", records.poll(10, TimeUnit.SECONDS));
+            assertTrue(nrTelemetryPipe.writeToPipe(10, TimeUnit.SECONDS, ByteBuffer.wrap("second payload".getBytes(UTF_8))));
+            assertEquals("second payload", records.poll(10, TimeUnit.SECONDS));
+        } finally {
+            reader.interrupt();
+            fifo.delete();
+        }
+    }
+
+    @Test
+    void testReopensWhenPipeIsRecreated() throws Exception {
+        final File fifo = new File("/tmp/newrelic-telemetry-fifo-test");
+        fifo.delete();
+        assumeTrue(mkfifo(fifo), "mkfifo is not available");
+        try (NrTelemetryPipe nrTelemetryPipe = new NrTelemetryPipe(fifo)) {
+            final byte[] first = "first payload".getBytes(UTF_8);
+            FutureTask<String> reader = startReader(fifo, first.length);
+            nrTelemetryPipe.writeToPipe(ByteBuffer.wrap(first));
+            assertEquals("first payload", reader.get(10, TimeUnit.SECONDS));
+
+            // The extension restarted: the old read end is gone and a new pipe exists at the same path
+            assertTrue(fifo.delete());
+            assertTrue(mkfifo(fifo));
+            final byte[] second = "second payload".getBytes(UTF_8);
+            reader = startReader(fifo, second.length);
+            nrTelemetryPipe.writeToPipe(ByteBuffer.wrap(second));
+            assertEquals("second payload", reader.get(10, TimeUnit.SECONDS));
+        } finally {
+            fifo.delete();
+        }
+    }
+
+    @Test
+    void testTimedWriteCutsOffStalledReader() throws Exception {
+        final File fifo = new File("/tmp/newrelic-telemetry-fifo-test");
+        fifo.delete();
+        assumeTrue(mkfifo(fifo), "mkfifo is not available");
+        final CountDownLatch consumed = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final FutureTask<Long> stalledReader = new FutureTask<>(() -> {
+            try (FileInputStream in = new FileInputStream(fifo)) {
+                final byte[] buffer = new byte[8192];
+                long read = in.read(buffer);
+                consumed.countDown();
+                release.await();
+                for (int count; (count = in.read(buffer)) >= 0; ) {
+                    read += count;
+                }
+                return read;
+            }
+        });
+        final Thread thread = new Thread(stalledReader);
+        thread.setDaemon(true);
+        thread.start();
+        try (NrTelemetryPipe nrTelemetryPipe = new NrTelemetryPipe(fifo)) {
+            // Far more than the pipe's buffer, and the reader stops after its first read
+            final int length = 4 * 1024 * 1024;
+            final long start = System.nanoTime();
+            // Part of the payload is in the pipe, so it must not be sent to the fallback as well
+            assertTrue(nrTelemetryPipe.writeToPipe(200, TimeUnit.MILLISECONDS, ByteBuffer.wrap(new byte[length])));
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+            assertTrue(consumed.await(10, TimeUnit.SECONDS));
+            assertEquals(1, nrTelemetryPipe.getTimeoutCount());
+            assertEquals(1, nrTelemetryPipe.getTruncatedCount());
+            assertEquals(0, nrTelemetryPipe.getWriteCount());
+
+            // The abandoned write closed the pipe, so the reader gets the rest of what was buffered and then EOF
+            release.countDown();
+            final long read = stalledReader.get(10, TimeUnit.SECONDS);
+            assertTrue(read > 0 && read < length, String.valueOf(read));
+        } finally {
+            release.countDown();
+            fifo.delete();
+        }
+    }
+
+    @Test
+    void testTimedWriteWithoutReader() throws Exception {
+        final File fifo = new File("/tmp/newrelic-telemetry-fifo-test");
+        fifo.delete();
+        assumeTrue(mkfifo(fifo), "mkfifo is not available");
+        try (NrTelemetryPipe nrTelemetryPipe = new NrTelemetryPipe(fifo)) {
+            final byte[] bytes = "payload".getBytes(UTF_8);
+            // Nobody opened the read end, so opening for write blocks past the deadline
+            assertFalse(nrTelemetryPipe.writeToPipe(100, TimeUnit.MILLISECONDS, ByteBuffer.wrap(bytes)));
+            assertEquals(1, nrTelemetryPipe.getTimeoutCount());
+            assertEquals(0, nrTelemetryPipe.getTruncatedCount());
+            // The abandoned open is still blocked, so the next write is refused straight away
+            assertFalse(nrTelemetryPipe.writeToPipe(10, TimeUnit.SECONDS, ByteBuffer.wrap(bytes)));
+            assertEquals(1, nrTelemetryPipe.getStalledCount());
+
+            // Once a reader attaches, the abandoned payload is discarded and the next one goes through
+            final FutureTask<String> reader = startReader(fifo, bytes.length);
+            while (nrTelemetryPipe.getWriteCount() == 0 && !reader.isDone()) {
+                nrTelemetryPipe.writeToPipe(10, TimeUnit.SECONDS, ByteBuffer.wrap(bytes));
+                Thread.sleep(10);
+            }
+            assertEquals("payload", reader.get(10, TimeUnit.SECONDS));
+            assertEquals(1, nrTelemetryPipe.getWriteCount());
+            assertEquals(0, nrTelemetryPipe.getTruncatedCount());
+        } finally {
+            fifo.delete();
+        }
+    }
+
+    private static boolean mkfifo(File fifo) throws InterruptedException {
+        try {
+            return new ProcessBuilder("mkfifo", fifo.getPath()).start().waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static FutureTask<String> startReader(File fifo, int length) {
+        final FutureTask<String> reader = new FutureTask<>(() -> {
+            try (FileInputStream in = new FileInputStream(fifo)) {
+                final byte[] bytes = new byte[length];
+                int read = 0;
+                while (read < length) {
+                    final int count = in.read(bytes, read, length - read);
+                    if (count < 0) {
+                        // No writer attached right now; a FIFO reads again once one reopens it
+                        Thread.sleep(10);
+                    } else {
+                        read += count;
+                    }
+                }
+                return new String(bytes, UTF_8);
+            }
+        });
+        final Thread thread = new Thread(reader);
+        thread.setDaemon(true);
+        thread.start();
+        return reader;
+    }
+
     @AfterEach
     void deletePipe() {
         assertTrue(testPayloadPipe.delete());
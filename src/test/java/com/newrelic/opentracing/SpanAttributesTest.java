@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class SpanAttributesTest {
+
+    @Test
+    void keepsInsertionOrderAndReplacesValues() {
+        final SpanAttributes attributes = new SpanAttributes();
+        assertTrue(attributes.isEmpty());
+        for (int i = 0; i < 10; i++) {
+            attributes.put("key" + i, i);
+        }
+        attributes.put("key3", "three");
+        attributes.put(null, "ignored");
+        attributes.put("ignored", null);
+
+        assertEquals(10, attributes.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("key" + i, attributes.key(i));
+        }
+        assertEquals("three", attributes.get("key3"));
+        assertEquals(9, attributes.get("key9"));
+        assertNull(attributes.get("ignored"));
+        assertNull(attributes.get(null));
+        assertFalse(attributes.containsKey("ignored"));
+    }
+
+    @Test
+    void copiesFromAndToMaps() {
+        final Map<String, Object> input = new HashMap<>();
+        input.put("a", 1);
+        input.put("b", null);
+        input.put(null, 2);
+        final SpanAttributes attributes = new SpanAttributes(input);
+        assertEquals(1, attributes.size());
+
+        final Map<String, Object> output = attributes.toMap();
+        output.put("c", 3);
+        assertFalse(attributes.containsKey("c"));
+
+        final SpanAttributes copy = attributes.share();
+        copy.put("d", 4);
+        assertFalse(attributes.containsKey("d"));
+        assertEquals(1, copy.get("a"));
+        attributes.put("a", 5);
+        attributes.put("e", 6);
+        assertEquals(1, copy.get("a"));
+        assertFalse(copy.containsKey("e"));
+        assertEquals(4, copy.get("d"));
+    }
+
+    @Test
+    void storesPrimitivesUnboxed() {
+        final SpanAttributes attributes = new SpanAttributes();
+        attributes.put("string", "value");
+        attributes.put("bool", true);
+        attributes.put("int", 42);
+        attributes.put("long", 1L << 40);
+        attributes.put("float", 1.5f);
+        attributes.put("double", 2.25d);
+        attributes.put("boxed", Integer.valueOf(7));
+        attributes.put("short", Short.valueOf((short) 3));
+
+        assertEquals(SpanAttributes.TYPE_OBJECT, attributes.type(0));
+        assertEquals(SpanAttributes.TYPE_BOOLEAN, attributes.type(1));
+        assertTrue(attributes.booleanValue(1));
+        assertEquals(SpanAttributes.TYPE_INT, attributes.type(2));
+        assertEquals(42, attributes.longValue(2));
+        assertEquals(SpanAttributes.TYPE_LONG, attributes.type(3));
+        assertEquals(1L << 40, attributes.longValue(3));
+        assertEquals(SpanAttributes.TYPE_FLOAT, attributes.type(4));
+        assertEquals(1.5f, attributes.floatValue(4));
+        assertEquals(SpanAttributes.TYPE_DOUBLE, attributes.type(5));
+        assertEquals(2.25d, attributes.doubleValue(5));
+        assertEquals(SpanAttributes.TYPE_INT, attributes.type(6));
+        assertEquals(SpanAttributes.TYPE_OBJECT, attributes.type(7));
+
+        // boxing on read gives back the wrapper type that was stored
+        assertEquals(Boolean.TRUE, attributes.get("bool"));
+        assertEquals(Integer.valueOf(42), attributes.get("int"));
+        assertEquals(Long.valueOf(1L << 40), attributes.get("long"));
+        assertEquals(Float.valueOf(1.5f), attributes.get("float"));
+        assertEquals(Double.valueOf(2.25d), attributes.get("double"));
+        assertEquals(Short.valueOf((short) 3), attributes.get("short"));
+
+        // a slot can change type when it's replaced
+        attributes.put("int", "forty-two");
+        attributes.put("string", 9L);
+        assertEquals("forty-two", attributes.get("int"));
+        assertEquals(9L, attributes.get("string"));
+        assertEquals(9L, attributes.share().get("string"));
+    }
+
+    @Test
+    void enforcesLimits() {
+        final long dropped = SpanAttributes.droppedCount();
+        final long truncated = SpanAttributes.truncatedCount();
+        final SpanAttributes attributes = new SpanAttributes();
+        for (int i = 0; i < SpanAttributes.MAX_ATTRIBUTES + 10; i++) {
+            attributes.put("key" + i, i);
+        }
+        assertEquals(SpanAttributes.MAX_ATTRIBUTES, attributes.size());
+        assertEquals(dropped + 10, SpanAttributes.droppedCount());
+        // existing attributes can still be replaced
+        attributes.put("key0", "replaced");
+        assertEquals("replaced", attributes.get("key0"));
+
+        final StringBuilder statement = new StringBuilder();
+        while (statement.length() < 40_000) {
+            statement.append("INSERT INTO t VALUES (1); ");
+        }
+        attributes.put("key1", statement.toString());
+        attributes.put("key2", "\uD83D\uDE00" + statement.substring(0, SpanAttributes.MAX_VALUE_LENGTH - 4) + "\uD83D\uDE00");
+        assertEquals(SpanAttributes.MAX_VALUE_LENGTH, utf8Length(attributes.get("key1")));
+        // the limit is in UTF-8 bytes, and a code point isn't split: the 4-byte emoji at the end doesn't fit
+        assertEquals("\uD83D\uDE00" + statement.substring(0, SpanAttributes.MAX_VALUE_LENGTH - 4), attributes.get("key2"));
+        final StringBuilder accented = new StringBuilder();
+        while (accented.length() < SpanAttributes.MAX_VALUE_LENGTH) {
+            accented.append('\u00e9');
+        }
+        attributes.put("key3", accented.toString());
+        assertEquals(SpanAttributes.MAX_VALUE_LENGTH / 2, ((String) attributes.get("key3")).length());
+        // short multi-byte values fit whole
+        attributes.put("key4", accented.substring(0, SpanAttributes.MAX_VALUE_LENGTH / 2));
+        assertEquals(SpanAttributes.MAX_VALUE_LENGTH / 2, ((String) attributes.get("key4")).length());
+
+        final SpanAttributes query = new SpanAttributes();
+        query.put("db.statement", statement.toString());
+        assertEquals(SpanAttributes.MAX_DB_STATEMENT_LENGTH, utf8Length(query.get("db.statement")));
+        assertEquals(truncated + 4, SpanAttributes.truncatedCount());
+    }
+
+    private static int utf8Length(Object value) {
+        return ((String) value).getBytes(UTF_8).length;
+    }
+
+}
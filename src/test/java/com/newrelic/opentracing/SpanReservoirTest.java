@@ -0,0 +1,232 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+
+class SpanReservoirTest {
+
+    @Test
+    void keepsMostValuableSpans() {
+        final LambdaSpan root = SpanTestUtils.createSpan("root", 0, 0, new HashMap<>(), null, "root");
+        final SpanReservoir reservoir = new SpanReservoir(10);
+
+        final Set<Object> expected = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            final LambdaSpan span = SpanTestUtils.createSpan("span" + i, 0, 0, new HashMap<>(), root, "span" + i);
+            if (i == 10 || i == 500) {
+                span.setTag("error", true);
+                expected.add(span);
+            } else if (i == 20 || i == 700) {
+                span.setTag("db.statement", "SELECT 1");
+                expected.add(span);
+            } else if (i >= 994) {
+                // the longest generic spans, finished last
+                expected.add(span);
+            }
+            span.finish(i >= 994 ? 1_000_000 + i : i);
+            reservoir.add((LambdaSpanContext) span.context());
+        }
+
+        assertEquals(1000, reservoir.seen());
+        assertEquals(10, reservoir.size());
+        final List<LambdaSpanContext> sample = new ArrayList<>();
+        reservoir.addTo(sample);
+        final Set<Object> kept = new HashSet<>();
+        for (LambdaSpanContext context : sample) {
+            kept.add(context.getSpan());
+        }
+        assertEquals(expected, kept);
+        // most recently finished first
+        assertEquals("span999", sample.get(0).getSpan().getOperationName());
+        assertEquals("span10", sample.get(sample.size() - 1).getSpan().getOperationName());
+    }
+
+    @Test
+    void keepsEvictingAfterReading() {
+        final LambdaSpan root = SpanTestUtils.createSpan("root", 0, 0, new HashMap<>(), null, "root");
+        final SpanReservoir reservoir = new SpanReservoir(4);
+        for (int i = 0; i < 11; i++) {
+            final LambdaSpan span = SpanTestUtils.createSpan("span" + i, 0, 0, new HashMap<>(), root, "span" + i);
+            // the last one only beats the shortest span held
+            span.finish(i < 10 ? i * 10 : 65);
+            reservoir.add((LambdaSpanContext) span.context());
+            if (i == 9) {
+                // reading sorts the heap by finish order; it must be restored for the spans still to come
+                reservoir.addTo(new ArrayList<>());
+            }
+        }
+
+        final List<String> names = new ArrayList<>();
+        final List<LambdaSpanContext> sample = new ArrayList<>();
+        reservoir.drainTo(sample);
+        for (LambdaSpanContext context : sample) {
+            names.add(context.getSpan().getOperationName());
+        }
+        assertEquals(Arrays.asList("span10", "span9", "span8", "span7"), names);
+    }
+
+    @Test
+    void keepsFinishOrderAcrossThreads() throws Exception {
+        final List<List<LambdaSpanContext>> perThread = finishedSpans(8, 500, 0);
+        final SpanReservoir reservoir = new SpanReservoir(4000);
+        addConcurrently(reservoir, perThread);
+
+        assertEquals(4000, reservoir.seen());
+        assertEquals(4000, reservoir.size());
+        final List<LambdaSpanContext> sample = new ArrayList<>();
+        reservoir.addTo(sample);
+        assertEquals(4000, new HashSet<>(sample).size());
+        // each thread's spans come out most recently finished first
+        for (List<LambdaSpanContext> spans : perThread) {
+            int previous = Integer.MAX_VALUE;
+            for (int i = 0; i < spans.size(); i++) {
+                final int position = sample.indexOf(spans.get(i));
+                assertTrue(position < previous);
+                previous = position;
+            }
+        }
+    }
+
+    @Test
+    void evictsConcurrently() throws Exception {
+        final List<List<LambdaSpanContext>> perThread = finishedSpans(8, 1000, 10);
+        final SpanReservoir reservoir = new SpanReservoir(100);
+        addConcurrently(reservoir, perThread);
+
+        assertEquals(8000, reservoir.seen());
+        assertEquals(100, reservoir.size());
+        final List<LambdaSpanContext> sample = new ArrayList<>();
+        reservoir.addTo(sample);
+        assertEquals(100, sample.size());
+        int errors = 0;
+        for (LambdaSpanContext context : sample) {
+            if (Boolean.TRUE.equals(context.getSpan().getTag("error"))) {
+                errors++;
+            }
+        }
+        assertEquals(80, errors);
+    }
+
+    private static List<List<LambdaSpanContext>> finishedSpans(int threads, int spansPerThread, int errorsPerThread) {
+        final LambdaSpan root = SpanTestUtils.createSpan("root", 0, 0, new HashMap<>(), null, "root");
+        final List<List<LambdaSpanContext>> perThread = new ArrayList<>();
+        for (int thread = 0; thread < threads; thread++) {
+            final List<LambdaSpanContext> spans = new ArrayList<>();
+            for (int i = 0; i < spansPerThread; i++) {
+                final String name = "span" + thread + "-" + i;
+                final LambdaSpan span = SpanTestUtils.createSpan(name, 0, 0, new HashMap<>(), root, name);
+                if (i < errorsPerThread) {
+                    span.setTag("error", true);
+                }
+                span.finish(i);
+                spans.add((LambdaSpanContext) span.context());
+            }
+            perThread.add(spans);
+        }
+        return perThread;
+    }
+
+    private static void addConcurrently(SpanReservoir reservoir, List<List<LambdaSpanContext>> perThread) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        for (List<LambdaSpanContext> spans : perThread) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                spans.forEach(reservoir::add);
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    @Test
+    void zeroCapacityOnlyCounts() {
+        final LambdaSpan root = SpanTestUtils.createSpan("root", 0, 0, new HashMap<>(), null, "root");
+        final SpanReservoir reservoir = new SpanReservoir(0);
+        reservoir.add((LambdaSpanContext) root.context());
+        assertEquals(1, reservoir.seen());
+        final List<LambdaSpanContext> sample = new ArrayList<>();
+        reservoir.addTo(sample);
+        assertTrue(sample.isEmpty());
+    }
+
+    @Test
+    void drainingClosesReservoir() {
+        final LambdaSpan root = SpanTestUtils.createSpan("root", 0, 0, new HashMap<>(), null, "root");
+        // before and after the sample turns into a heap
+        for (int offered : new int[] { 2, 5 }) {
+            final SpanReservoir reservoir = new SpanReservoir(3);
+            for (int i = 0; i < offered; i++) {
+                final LambdaSpan span = SpanTestUtils.createSpan("span" + i, 0, 0, new HashMap<>(), root, "span" + i);
+                assertTrue(reservoir.add((LambdaSpanContext) span.context()));
+            }
+
+            final List<LambdaSpanContext> sample = new ArrayList<>();
+            reservoir.drainTo(sample);
+            assertEquals(Math.min(offered, 3), sample.size());
+            assertEquals(offered, reservoir.seen());
+            assertEquals(sample.size(), reservoir.size());
+
+            assertFalse(reservoir.add((LambdaSpanContext) root.context()));
+            final List<LambdaSpanContext> again = new ArrayList<>();
+            reservoir.drainTo(again);
+            reservoir.addTo(again);
+            assertTrue(again.isEmpty());
+            assertEquals(offered, reservoir.seen());
+        }
+    }
+
+    @Test
+    void spanCountedBeforeDrainIsTurnedAway() throws Exception {
+        final LambdaSpan root = SpanTestUtils.createSpan("root", 0, 0, new HashMap<>(), null, "root");
+        final SpanReservoir reservoir = new SpanReservoir(3);
+        for (int i = 0; i < 3; i++) {
+            reservoir.add((LambdaSpanContext) SpanTestUtils.createSpan("span" + i, 0, 0, new HashMap<>(), root, "span" + i).context());
+        }
+        final LambdaSpan straggler = SpanTestUtils.createSpan("straggler", 0, 0, new HashMap<>(), root, "straggler");
+        straggler.setTag("error", true);
+
+        final List<LambdaSpanContext> sample = new ArrayList<>();
+        final boolean[] added = new boolean[1];
+        final Thread thread = new Thread(() -> added[0] = reservoir.add((LambdaSpanContext) straggler.context()));
+        synchronized (reservoir) {
+            // the straggler is counted, then waits for the lock to compete for a place
+            thread.start();
+            while (thread.getState() != Thread.State.BLOCKED) {
+                Thread.yield();
+            }
+            reservoir.drainTo(sample);
+        }
+        thread.join();
+
+        // counted once, in the drained payload, and not handed back to be reported again
+        assertTrue(added[0]);
+        assertEquals(4, reservoir.seen());
+        assertEquals(3, sample.size());
+        assertFalse(sample.contains(straggler.context()));
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.concurrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.newrelic.opentracing.LambdaSpan;
+import com.newrelic.opentracing.LambdaTracer;
+import io.opentracing.Scope;
+import io.opentracing.Span;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TracedCompletionStageTest {
+
+    private ExecutorService completer;
+
+    @BeforeEach
+    void createCompleter() {
+        completer = Executors.newSingleThreadExecutor();
+    }
+
+    @AfterEach
+    void shutdownCompleter() {
+        completer.shutdownNow();
+    }
+
+    @Test
+    void continuationsRunWithTheCapturedSpan() throws Exception {
+        final Span root = LambdaTracer.INSTANCE.buildSpan("root").start();
+        final CompletableFuture<String> response = new CompletableFuture<>();
+        final CompletionStage<Span> active;
+        final CompletionStage<Span> composed;
+        try (Scope ignored = LambdaTracer.INSTANCE.activateSpan(root)) {
+            final CompletionStage<String> traced = TracedCompletionStage.of(response);
+            active = traced.thenApply(value -> LambdaTracer.INSTANCE.activeSpan());
+            composed = traced.thenApply(String::length)
+                    .thenCompose(length -> CompletableFuture.completedFuture(LambdaTracer.INSTANCE.activeSpan()));
+        }
+
+        // complete on a thread without an active span
+        completer.execute(() -> response.complete("done"));
+        assertSame(root, active.toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertSame(root, composed.toCompletableFuture().get(5, TimeUnit.SECONDS));
+        assertNull(completer.submit(() -> LambdaTracer.INSTANCE.activeSpan()).get());
+    }
+
+    @Test
+    void finishesSpanWhenStageCompletes() throws Exception {
+        final Span root = LambdaTracer.INSTANCE.buildSpan("root").start();
+        final CompletableFuture<String> response = new CompletableFuture<>();
+        final LambdaSpan child;
+        final CompletionStage<Span> active;
+        try (Scope ignored = LambdaTracer.INSTANCE.activateSpan(root)) {
+            child = (LambdaSpan) LambdaTracer.INSTANCE.buildSpan("call").start();
+            active = TracedCompletionStage.finishing(child, response).thenApply(value -> LambdaTracer.INSTANCE.activeSpan());
+        }
+        assertEquals(0, child.getDurationInMicros());
+
+        final RuntimeException failure = new RuntimeException("throttled");
+        completer.execute(() -> response.completeExceptionally(failure));
+        active.toCompletableFuture().handle((value, error) -> null).get(5, TimeUnit.SECONDS);
+
+        assertNotNull(child.getLog("error.object"));
+        assertSame(failure, child.getLog("error.object").getValue());
+        assertEquals("throttled", child.getLog("message").getValue());
+    }
+
+}
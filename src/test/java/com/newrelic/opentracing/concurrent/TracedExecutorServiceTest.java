@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.concurrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.newrelic.opentracing.LambdaSpan;
+import com.newrelic.opentracing.LambdaTracer;
+import io.opentracing.Scope;
+import io.opentracing.Span;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TracedExecutorServiceTest {
+
+    private static final Callable<LambdaSpan> START_CHILD = () -> (LambdaSpan) LambdaTracer.INSTANCE.buildSpan("child").start();
+
+    private ExecutorService pool;
+    private ForkJoinPool forkJoinPool;
+
+    @BeforeEach
+    void createPools() {
+        pool = Executors.newFixedThreadPool(2);
+        forkJoinPool = new ForkJoinPool(2);
+    }
+
+    @AfterEach
+    void shutdownPools() {
+        pool.shutdownNow();
+        forkJoinPool.shutdownNow();
+    }
+
+    @Test
+    void submittedTasksJoinTheTrace() throws Exception {
+        final ExecutorService traced = new TracedExecutorService(pool);
+        final Span root = LambdaTracer.INSTANCE.buildSpan("root").start();
+        final Future<LambdaSpan> untracedChild;
+        final Future<LambdaSpan> child;
+        final List<Future<LambdaSpan>> children;
+        final CompletableFuture<LambdaSpan> asyncChild;
+        try (Scope ignored = LambdaTracer.INSTANCE.activateSpan(root)) {
+            untracedChild = pool.submit(START_CHILD);
+            child = traced.submit(START_CHILD);
+            children = traced.invokeAll(Arrays.asList(START_CHILD, START_CHILD));
+            asyncChild = CompletableFuture.supplyAsync(() -> (LambdaSpan) LambdaTracer.INSTANCE.buildSpan("child").start(),
+                    new TracedExecutor(pool));
+        }
+
+        assertTrue(untracedChild.get().isRootSpan());
+        assertEquals(root.context().toSpanId(), child.get().getParentId());
+        for (Future<LambdaSpan> future : children) {
+            assertEquals(root.context().toSpanId(), future.get().getParentId());
+        }
+        assertEquals(root.context().toSpanId(), asyncChild.get().getParentId());
+        // the pool's threads are left without an active span
+        assertNull(pool.submit(() -> LambdaTracer.INSTANCE.activeSpan()).get());
+    }
+
+    @Test
+    void forkJoinTasksJoinTheTrace() throws Exception {
+        final ExecutorService traced = new TracedExecutorService(forkJoinPool);
+        final Span root = LambdaTracer.INSTANCE.buildSpan("root").start();
+        final Future<LambdaSpan> child;
+        final LambdaSpan invokedChild;
+        try (Scope ignored = LambdaTracer.INSTANCE.activateSpan(root)) {
+            child = traced.submit(START_CHILD);
+            invokedChild = forkJoinPool.invoke(new TracedForkJoinTask<>(ForkJoinTask.adapt(START_CHILD)));
+        }
+
+        assertEquals(root.context().toSpanId(), child.get().getParentId());
+        assertEquals(root.context().toSpanId(), invokedChild.getParentId());
+    }
+
+    @Test
+    void runsInlineWithoutReactivating() {
+        final Span root = LambdaTracer.INSTANCE.buildSpan("root").start();
+        final int[] runs = new int[1];
+        try (Scope scope = LambdaTracer.INSTANCE.activateSpan(root)) {
+            new TracedExecutor(Runnable::run).execute(() -> runs[0]++);
+            assertSame(root, LambdaTracer.INSTANCE.activeSpan());
+        }
+        assertEquals(1, runs[0]);
+        assertNull(LambdaTracer.INSTANCE.activeSpan());
+    }
+
+}
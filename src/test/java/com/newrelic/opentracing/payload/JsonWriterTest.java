@@ -0,0 +1,84 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.payload;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONValue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class JsonWriterTest {
+
+    @Test
+    void escapesLikeJsonSimple() {
+        final List<String> values = Arrays.asList("plain", "quote\"back\\slash/", "\b\f\n\r\t", "\u0000\u001F\u007F\u009F",
+                "\u2028\u20AC", "caf\u00E9 \u4E2D\u6587", "\uD83D\uDE00", "lone \uD83D surrogate", "");
+        for (String value : values) {
+            assertJsonSimple(value, new JsonWriter().value(value));
+        }
+    }
+
+    @Test
+    void formatsFloatsLikeJsonSimple() {
+        final Random random = new Random(42);
+        final float[] fixed = { 0.0f, -0.0f, 1.0f, 0.001f, 9999999.0f, 1.0E7f, 1.0E-4f, 1265524.25f, 442813.625f, 1.2345f,
+                Float.MIN_VALUE, Float.MAX_VALUE, Float.NaN, Float.POSITIVE_INFINITY, -3.5f };
+        for (float value : fixed) {
+            assertJsonSimple(value, new JsonWriter().value(value));
+        }
+        for (int i = 0; i < 100000; i++) {
+            final float value = Float.intBitsToFloat(random.nextInt());
+            assertJsonSimple(value, new JsonWriter().value(value));
+            final float duration = random.nextInt(10000000) / 1000000.0f;
+            assertJsonSimple(duration, new JsonWriter().value(duration));
+        }
+    }
+
+    @Test
+    void formatsIntegersLikeJsonSimple() {
+        final long[] values = { 0, 1, -1, 9, 10, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE };
+        for (long value : values) {
+            assertJsonSimple(value, new JsonWriter().value(value));
+        }
+        assertJsonSimple(Integer.MIN_VALUE, new JsonWriter().value((Object) Integer.MIN_VALUE));
+        assertJsonSimple(2.5d, new JsonWriter().value(2.5d));
+    }
+
+    @Test
+    void writesStructure() {
+        final JsonWriter json = new JsonWriter(1);
+        json.beginArray()
+                .nullValue()
+                .beginObject().name("a").value(1).name("b").beginArray().endArray().endObject()
+                .value((Object) Arrays.asList("x", true, Collections.singletonMap("k", null)))
+                .endArray();
+
+        final Map<String, Object> object = new LinkedHashMap<>();
+        object.put("a", 1);
+        object.put("b", Collections.emptyList());
+        assertEquals(JSONArray.toJSONString(Arrays.asList(null, object, Arrays.asList("x", true, Collections.singletonMap("k", null)))),
+                json.toString());
+
+        json.reset();
+        json.beginObject().endObject();
+        assertEquals("{}", json.toString());
+    }
+
+    private static void assertJsonSimple(Object value, JsonWriter json) {
+        assertArrayEquals(JSONValue.toJSONString(value).getBytes(UTF_8), json.toByteArray());
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.payload;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.newrelic.opentracing.util.ProtocolUtil;
+import org.json.simple.JSONArray;
+import org.json.simple.parser.JSONParser;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class PayloadEncoderPoolTest {
+
+    @Test
+    void reusesReleasedEncoder() {
+        final PayloadEncoderPool pool = new PayloadEncoderPool(1);
+        final PayloadEncoder first = pool.acquire();
+        final PayloadEncoder second = pool.acquire();
+        assertNotSame(first, second);
+
+        pool.release(first);
+        pool.release(second); // pool is full, so this one is discarded
+        assertSame(first, pool.acquire());
+        assertNotSame(second, pool.acquire());
+    }
+
+    @Test
+    void sizesBuffersFromRecentPayloads() throws Exception {
+        final PayloadEncoderPool pool = new PayloadEncoderPool(1);
+        final Map<String, Object> metadata = ProtocolUtil.getMetadata("arn", "env");
+
+        // One large payload grows the buffer
+        PayloadEncoder encoder = pool.acquire();
+        encoder.encode(PayloadFragments.of(metadata), Collections.emptyList(), null, Collections.emptyList(), Collections.emptyList(), false);
+        final Map<String, Object> large = new HashMap<>(metadata);
+        large.put("padding", randomText(1024 * 1024));
+        encoder.encode(PayloadFragments.of(large), Collections.emptyList(), null, Collections.emptyList(), Collections.emptyList(), false);
+        assertTrue(encoder.payload().capacity() >= 1024 * 1024);
+        pool.release(encoder);
+
+        // Small payloads pull the average back down until the oversized buffer is given back
+        for (int i = 0; i < 40; i++) {
+            encoder = pool.acquire();
+            encoder.encode(PayloadFragments.of(metadata), Collections.emptyList(), null, Collections.emptyList(), Collections.emptyList(), false);
+            final JSONArray payload = (JSONArray) new JSONParser().parse(encoder.payload().toString());
+            assertEquals("{}", ProtocolUtil.decodeAndExtract((String) payload.get(3)));
+            pool.release(encoder);
+        }
+        assertTrue(pool.acquire().payload().capacity() < 256 * 1024);
+    }
+
+    private static String randomText(int length) {
+        final StringBuilder sb = new StringBuilder(length);
+        final Random random = new Random(7);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+}
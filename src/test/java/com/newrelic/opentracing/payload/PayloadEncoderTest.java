@@ -0,0 +1,256 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.payload;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.newrelic.opentracing.LambdaSpan;
+import com.newrelic.opentracing.SpanAttributes;
+import com.newrelic.opentracing.SpanTestUtils;
+import com.newrelic.opentracing.events.ErrorEvent;
+import com.newrelic.opentracing.events.ErrorEventBuilder;
+import com.newrelic.opentracing.events.TransactionEvent;
+import com.newrelic.opentracing.state.DistributedTracingState;
+import com.newrelic.opentracing.state.TransactionState;
+import com.newrelic.opentracing.traces.ErrorTrace;
+import com.newrelic.opentracing.traces.ErrorTraceBuilder;
+import com.newrelic.opentracing.util.ProtocolUtil;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class PayloadEncoderTest {
+
+    @Test
+    void encodesEnvelopeInOnePass() throws Exception {
+        final List<LambdaSpan> spans = createSpans(500);
+        final TransactionEvent txnEvent = new TransactionEvent(spans.get(0), new TransactionState(), new DistributedTracingState());
+        final Map<String, Object> metadata = ProtocolUtil.getMetadata("arn:aws:lambda:us-east-1:123456789012:function:handler", "AWS_Lambda_java8");
+
+        final PayloadEncoder encoder = new PayloadEncoder();
+        encoder.encode(PayloadFragments.of(metadata), spans, txnEvent, Collections.emptyList(), Collections.emptyList(), true);
+
+        final JsonWriter expectedData = new JsonWriter();
+        new PayloadWriter(expectedData).writeData(spans, txnEvent, Collections.emptyList(), Collections.emptyList());
+
+        final JSONArray payload = (JSONArray) new JSONParser().parse(encoder.payload().toString());
+        assertEquals(2L, payload.get(0));
+        assertEquals("NR_LAMBDA_MONITORING", payload.get(1));
+        assertEquals(metadata.get("arn"), ((Map) payload.get(2)).get("arn"));
+        assertEquals(1, encoder.lineCount());
+        assertEquals(expectedData.toString(), ProtocolUtil.decodeAndExtract((String) payload.get(3)));
+        assertEquals(expectedData.size(), encoder.dataSize());
+
+        final JSONArray debugPayload = (JSONArray) new JSONParser().parse(encoder.debugPayload());
+        assertEquals("DEBUG", debugPayload.get(1));
+        assertEquals(new JSONParser().parse(expectedData.toString()), debugPayload.get(3));
+    }
+
+    @Test
+    void reusesEncoder() throws Exception {
+        final PayloadEncoder encoder = new PayloadEncoder();
+        final Map<String, Object> metadata = ProtocolUtil.getMetadata("arn", "env");
+        for (int spanCount : new int[] { 200, 1, 50 }) {
+            final List<LambdaSpan> spans = createSpans(spanCount);
+            encoder.encode(PayloadFragments.of(metadata), spans, null, Collections.emptyList(), Collections.emptyList(), false);
+
+            final JsonWriter expectedData = new JsonWriter();
+            new PayloadWriter(expectedData).writeData(spans, null, Collections.emptyList(), Collections.emptyList());
+            final JSONArray payload = (JSONArray) new JSONParser().parse(encoder.payload().toString());
+            assertEquals(expectedData.toString(), ProtocolUtil.decodeAndExtract((String) payload.get(3)));
+            assertNull(encoder.debugPayload());
+        }
+    }
+
+    @Test
+    void splitsOversizedPayloadAcrossLines() throws Exception {
+        final List<LambdaSpan> spans = createSpans(3000);
+        final TransactionEvent txnEvent = new TransactionEvent(spans.get(0), new TransactionState(), new DistributedTracingState());
+        final List<ErrorEvent> errorEvents = new ArrayList<>();
+        final List<ErrorTrace> errorTraces = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            errorEvents.add(new ErrorEventBuilder()
+                    .setErrorClass("java.lang.RuntimeException")
+                    .setErrorMessage("failure " + i)
+                    .setTransactionGuid("txnGuid")
+                    .setDistributedTraceIntrinsics(Collections.emptyMap())
+                    .setUserAttributes(Collections.emptyMap())
+                    .createError());
+            errorTraces.add(new ErrorTraceBuilder()
+                    .setMessage("failure " + i)
+                    .setErrorType("java.lang.RuntimeException")
+                    .setStackTrace(Arrays.asList("\tat a.b(C.java:" + i + ")", "\tat d.e(F.java:2)"))
+                    .setIntrinsics(Collections.emptyMap())
+                    .setUserAttributes(Collections.emptyMap())
+                    .setTransactionGuid("txnGuid")
+                    .createErrorTrace());
+        }
+        final Map<String, Object> metadata = ProtocolUtil.getMetadata("arn", "env");
+        final int maxLineBytes = 16 * 1024;
+
+        final PayloadEncoder encoder = new PayloadEncoder(maxLineBytes);
+        encoder.encode(PayloadFragments.of(metadata), spans, txnEvent, errorEvents, errorTraces, false);
+
+        final String[] lines = encoder.payload().toString().split("\n");
+        assertEquals(encoder.lineCount(), lines.length);
+        assertTrue(lines.length > 2);
+
+        final Set<Object> spanGuids = new HashSet<>();
+        int transactionEvents = 0;
+        int errorEventCount = 0;
+        int errorTraceCount = 0;
+        long dataSize = 0;
+        for (String line : lines) {
+            assertTrue(line.getBytes(UTF_8).length <= maxLineBytes, "line of " + line.length() + " bytes");
+            final JSONArray payload = (JSONArray) new JSONParser().parse(line);
+            assertEquals("NR_LAMBDA_MONITORING", payload.get(1));
+            assertEquals("arn", ((Map) payload.get(2)).get("arn"));
+
+            final String data = ProtocolUtil.decodeAndExtract((String) payload.get(3));
+            dataSize += data.getBytes(UTF_8).length;
+            final JSONObject json = (JSONObject) new JSONParser().parse(data);
+            for (Object span : events(json, "span_event_data")) {
+                assertTrue(spanGuids.add(((Map) ((List) span).get(0)).get("guid")));
+            }
+            transactionEvents += events(json, "analytic_event_data").size();
+            errorEventCount += events(json, "error_event_data").size();
+            if (json.containsKey("error_data")) {
+                errorTraceCount += ((List) ((List) json.get("error_data")).get(1)).size();
+            }
+        }
+        assertEquals(spans.size(), spanGuids.size());
+        assertEquals(1, transactionEvents);
+        assertEquals(errorEvents.size(), errorEventCount);
+        assertEquals(errorTraces.size(), errorTraceCount);
+        assertEquals(dataSize, encoder.dataSize());
+    }
+
+    @Test
+    void oversizedItemGetsItsOwnLine() throws Exception {
+        // values are capped at 255 characters, so make a big span out of many incompressible ones
+        final Map<String, Object> tags = new HashMap<>();
+        final Random random = new Random(3);
+        for (int tag = 0; tag < 40; tag++) {
+            final StringBuilder value = new StringBuilder();
+            for (int i = 0; i < SpanAttributes.MAX_VALUE_LENGTH; i++) {
+                value.append((char) ('a' + random.nextInt(26)));
+            }
+            tags.put("big" + tag, value.toString());
+        }
+        final List<LambdaSpan> spans = createSpans(3);
+        spans.add(1, SpanTestUtils.createSpan("big", 1600000000000L, 1, tags, spans.get(0), "bigGuid"));
+
+        final PayloadEncoder encoder = new PayloadEncoder(4096);
+        encoder.encode(PayloadFragments.of(ProtocolUtil.getMetadata("arn", "env")), spans, null, Collections.emptyList(),
+                Collections.emptyList(), false);
+
+        final String[] lines = encoder.payload().toString().split("\n");
+        assertEquals(3, lines.length);
+        final JSONArray payload = (JSONArray) new JSONParser().parse(lines[1]);
+        final JSONObject data = (JSONObject) new JSONParser().parse(ProtocolUtil.decodeAndExtract((String) payload.get(3)));
+        assertEquals(1, events(data, "span_event_data").size());
+        assertEquals(1L, ((Map) ((List) data.get("span_event_data")).get(1)).get("events_seen"));
+    }
+
+    @Test
+    void addsSpansIncrementally() throws Exception {
+        final List<LambdaSpan> spans = createSpans(3000);
+        final TransactionEvent txnEvent = new TransactionEvent(spans.get(0), new TransactionState(), new DistributedTracingState());
+
+        final PayloadEncoder encoder = new PayloadEncoder(16 * 1024);
+        encoder.begin(PayloadFragments.of(ProtocolUtil.getMetadata("arn", "env")));
+        for (LambdaSpan span : spans) {
+            encoder.addSpan(span);
+        }
+        encoder.finish(txnEvent, Collections.emptyList(), Collections.emptyList());
+
+        final String[] lines = encoder.payload().toString().split("\n");
+        assertTrue(lines.length > 2);
+        int spanCount = 0;
+        for (int i = 0; i < lines.length; i++) {
+            final JSONArray payload = (JSONArray) new JSONParser().parse(lines[i]);
+            final JSONObject json = (JSONObject) new JSONParser().parse(ProtocolUtil.decodeAndExtract((String) payload.get(3)));
+            spanCount += events(json, "span_event_data").size();
+            // the transaction event follows the spans
+            assertEquals(i == lines.length - 1 ? 1 : 0, events(json, "analytic_event_data").size());
+        }
+        assertEquals(spans.size(), spanCount);
+        assertNull(encoder.debugPayload());
+    }
+
+    private static List<?> events(JSONObject data, String key) {
+        final List<?> section = (List<?>) data.get(key);
+        if (section == null) {
+            return Collections.emptyList();
+        }
+        final List<?> events = (List<?>) section.get(2);
+        assertEquals((long) events.size(), ((Map) section.get(1)).get("events_seen"));
+        assertEquals((long) events.size(), ((Map) section.get(1)).get("reservoir_size"));
+        return events;
+    }
+
+    @Test
+    void base64MatchesJdkEncoderForAnyWriteSplit() {
+        final Random random = new Random(42);
+        final PayloadBuffer buffer = new PayloadBuffer(64);
+        final Base64OutputStream base64 = new Base64OutputStream(buffer);
+        for (int length = 0; length < 20_000; length += 1 + random.nextInt(997)) {
+            final byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+
+            buffer.reset();
+            base64.start();
+            int offset = 0;
+            while (offset < length) {
+                final int chunk = Math.min(length - offset, random.nextInt(10));
+                if (chunk == 1) {
+                    base64.write(bytes[offset]);
+                } else {
+                    base64.write(bytes, offset, chunk);
+                }
+                offset += chunk;
+            }
+            base64.finish();
+
+            assertEquals(Base64.getEncoder().encodeToString(bytes), buffer.toString());
+            assertEquals(buffer.size(), base64.getBytesWritten());
+        }
+    }
+
+    private static List<LambdaSpan> createSpans(int count) {
+        final List<LambdaSpan> spans = new ArrayList<>();
+        LambdaSpan parent = null;
+        for (int i = 0; i < count; i++) {
+            final Map<String, Object> tags = new HashMap<>();
+            tags.put("index", i);
+            tags.put("db.statement", "select * from orders where id = " + i);
+            final LambdaSpan span = SpanTestUtils.createSpan("span-" + i, 1600000000000L + i, i, tags, parent, "guid" + i);
+            if (parent == null) {
+                parent = span;
+            } else {
+                span.finish(1000L + i);
+            }
+            spans.add(span);
+        }
+        return spans;
+    }
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.payload;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.newrelic.opentracing.util.ProtocolUtil;
+import org.json.simple.JSONObject;
+
+import org.junit.jupiter.api.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+class PayloadFragmentsTest {
+
+    @Test
+    void encodesMetadataOncePerFunction() {
+        final String arn = "arn:aws:lambda:us-east-1:123456789012:function:handler";
+        final PayloadFragments fragments = PayloadFragments.forFunction(arn, "AWS_Lambda_java8");
+        assertSame(fragments, PayloadFragments.forFunction(arn, "AWS_Lambda_java8"));
+
+        final String metadataJson = JSONObject.toJSONString(ProtocolUtil.getMetadata(arn, "AWS_Lambda_java8"));
+        assertEquals(metadataJson, fragments.getMetadataJson());
+        assertEquals("[2,\"NR_LAMBDA_MONITORING\"," + metadataJson + ",\"", new String(fragments.payloadPrefix(), UTF_8));
+        assertEquals("[2,\"DEBUG\"," + metadataJson + ",", fragments.debugPrefix());
+
+        assertNotSame(fragments, PayloadFragments.forFunction(arn + "2", "AWS_Lambda_java8"));
+        assertNotSame(fragments, PayloadFragments.forFunction(arn, null));
+    }
+
+}
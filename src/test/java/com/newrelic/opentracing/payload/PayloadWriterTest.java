@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.payload;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.newrelic.opentracing.LambdaCollector;
+import com.newrelic.opentracing.LambdaSpan;
+import com.newrelic.opentracing.SpanTestUtils;
+import com.newrelic.opentracing.events.ErrorEvent;
+import com.newrelic.opentracing.events.ErrorEventBuilder;
+import com.newrelic.opentracing.events.TransactionEvent;
+import com.newrelic.opentracing.state.DistributedTracingState;
+import com.newrelic.opentracing.state.TransactionState;
+import com.newrelic.opentracing.traces.ErrorTrace;
+import com.newrelic.opentracing.traces.ErrorTraceBuilder;
+import com.newrelic.opentracing.util.ProtocolUtil;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class PayloadWriterTest {
+
+    @Test
+    void matchesJsonSimpleRendering() throws Exception {
+        final Map<String, Object> tags = new HashMap<>();
+        tags.put("aws.lambda.arn", "arn:aws:lambda:us-east-1:123456789012:function:handler");
+        tags.put("http.status_code", 200);
+        tags.put("error", true);
+        tags.put("ratio", 0.25f);
+        tags.put("path", "/orders/\"42\"\n");
+
+        final LambdaSpan root = SpanTestUtils.createSpanWithInboundPayload("root", 1600000000000L, 1000L, tags, "rootGuid", new LambdaCollector());
+        final Map<String, Object> childTags = new HashMap<>();
+        childTags.put("db.statement", "select 1");
+        childTags.put("span.kind", "client");
+        final LambdaSpan child = SpanTestUtils.createSpan("child", 1600000000001L, 2000L, childTags, root, "childGuid");
+        child.finish(123456L);
+
+        final TransactionEvent txnEvent = new TransactionEvent(root, new TransactionState(), new DistributedTracingState());
+
+        final Map<String, Object> intrinsics = new HashMap<>();
+        intrinsics.put("guid", "txnGuid");
+        intrinsics.put("priority", 1.5f);
+        final ErrorEvent errorEvent = new ErrorEventBuilder()
+                .setErrorClass("java.lang.RuntimeException")
+                .setErrorMessage(null)
+                .setTimestamp(1600000000002L)
+                .setTransactionDuration(0.125f)
+                .setTransactionGuid("txnGuid")
+                .setDistributedTraceIntrinsics(intrinsics)
+                .setUserAttributes(Collections.singletonMap("error.kind", "Exception"))
+                .createError();
+        final ErrorTrace errorTrace = new ErrorTraceBuilder()
+                .setTimestamp(1600000000002L)
+                .setTransactionName("Other/Function/handler")
+                .setMessage("Ouch")
+                .setErrorType("java.lang.RuntimeException")
+                .setStackTrace(Arrays.asList("\tat a.b(C.java:1)", "\tat d.e(F.java:2)"))
+                .setIntrinsics(intrinsics)
+                .setUserAttributes(Collections.emptyMap())
+                .setTransactionGuid("txnGuid")
+                .createErrorTrace();
+
+        final List<LambdaSpan> spans = Arrays.asList(root, child);
+        final List<ErrorEvent> errorEvents = Collections.singletonList(errorEvent);
+        final List<ErrorTrace> errorTraces = Collections.singletonList(errorTrace);
+
+        final JsonWriter json = new JsonWriter();
+        new PayloadWriter(json).writeData(spans, txnEvent, errorEvents, errorTraces);
+        final String expected = JSONObject.toJSONString(ProtocolUtil.getData(spans, txnEvent, errorEvents, errorTraces));
+
+        // Member order inside objects differs from HashMap iteration order; everything else must be identical
+        final JSONParser parser = new JSONParser();
+        assertEquals(parser.parse(expected), parser.parse(json.toString()));
+        assertEquals(expected.length(), json.toString().length());
+    }
+
+    @Test
+    void omitsEmptySections() {
+        final JsonWriter json = new JsonWriter();
+        new PayloadWriter(json).writeData(Collections.emptyList(), null, Collections.emptyList(), Collections.emptyList());
+        assertEquals("{}", json.toString());
+    }
+
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.newrelic.opentracing.payload.JsonWriter;
+import java.math.BigDecimal;
+import org.junit.jupiter.api.Test;
+
+class DistributedTraceUtilTest {
+
+    @Test
+    void rendersIdsLowNibbleFirst() {
+        assertEquals("0123456789abcdef", DistributedTraceUtil.toGuid(0xfedcba9876543210L));
+        assertEquals("f000000000000000", DistributedTraceUtil.toGuid(0xfL));
+        assertEquals("ffffffffffffffff", DistributedTraceUtil.toGuid(-1L));
+
+        for (int i = 0; i < 100; i++) {
+            final long id = DistributedTraceUtil.nextId();
+            assertNotEquals(0, id);
+            final JsonWriter json = new JsonWriter();
+            json.guidValue(id);
+            assertEquals('"' + DistributedTraceUtil.toGuid(id) + '"', json.toString());
+        }
+    }
+
+    @Test
+    void truncatesPriorityToSixDecimals() {
+        for (int i = 0; i < 10000; i++) {
+            final float priority = DistributedTraceUtil.nextTruncatedFloat();
+            assertTrue(priority >= 0.0f && priority < 1.0f);
+            // the float prints as its six digit decimal, as the DecimalFormat round trip used to give
+            assertTrue(new BigDecimal(Float.toString(priority)).stripTrailingZeros().scale() <= 6, Float.toString(priority));
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.newrelic.opentracing.SpanAttributes;
+import org.junit.jupiter.api.Test;
+
+class SpanCategoryDetectionTest {
+
+    @Test
+    void classifiesAsTagsAreSet() {
+        final SpanAttributes attributes = new SpanAttributes();
+        attributes.put("component", "aws-sdk");
+        assertEquals(SpanCategory.GENERIC, SpanCategoryDetection.category(attributes.categoryBits()));
+
+        attributes.put("http.status_code", 200);
+        assertEquals(SpanCategory.GENERIC, SpanCategoryDetection.category(attributes.categoryBits()));
+        attributes.put("span.kind", "client");
+        assertEquals(SpanCategory.HTTP, SpanCategoryDetection.category(attributes.categoryBits()));
+
+        // span.kind is tracked by value, so replacing it reclassifies the span
+        attributes.put("span.kind", "server");
+        assertEquals(SpanCategory.GENERIC, SpanCategoryDetection.category(attributes.categoryBits()));
+        attributes.put("span.kind", "client");
+
+        attributes.put("db.statement", "SELECT 1");
+        assertEquals(SpanCategory.DATASTORE, SpanCategoryDetection.category(attributes.categoryBits()));
+    }
+
+}
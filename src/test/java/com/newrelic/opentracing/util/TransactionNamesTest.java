@@ -0,0 +1,28 @@
+/*
+ * Copyright 2020 New Relic Corporation. All rights reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.newrelic.opentracing.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+class TransactionNamesTest {
+
+    @Test
+    void namesFromArn() {
+        final String arn = "arn:aws:lambda:us-east-1:123456789012:function:handler";
+        assertEquals("Other/Function/handler", TransactionNames.forArn(TransactionNames.OTHER, arn));
+        assertEquals("WebTransaction/Function/handler", TransactionNames.forArn(TransactionNames.WEB_TRANSACTION, arn));
+        assertSame(TransactionNames.forArn(TransactionNames.OTHER, arn), TransactionNames.forArn(TransactionNames.OTHER, arn));
+
+        assertEquals("Other/Function/other", TransactionNames.forArn(TransactionNames.OTHER, "arn:other"));
+        assertNull(TransactionNames.forArn(TransactionNames.OTHER, "no-function-name"));
+        assertNull(TransactionNames.forArn(TransactionNames.OTHER, null));
+    }
+
+}